@@ -0,0 +1,71 @@
+import bench.Workload;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/* see AdapterBenchmark */
+public class AdapterWorkload implements Workload {
+    private CommunicationCard card;
+    private TokenRing tokenRing; //legacy only
+    private boolean legacy;
+    private byte[] frame;
+    private int comSize; //what getCom is asked for, TokenRing counts ints
+
+    @Override
+    public void setUp(String variant, int size) {
+        frame = new byte[size];
+        for (int i = 0; i < size; i++) {
+            frame[i] = (byte) i;
+        }
+        comSize = size;
+        switch (variant) {
+            case "ethernet":
+                card = new EthernetToComAdapter(new ConcreteEthernet(size));
+                break;
+            case "ringBufferEthernet":
+                card = new EthernetToComAdapter(new RingBufferEthernet(size));
+                break;
+            default:
+                tokenRing = new ConcreteTokenRing(size / 4);
+                card = new TokenRingToComAdapter(tokenRing);
+                legacy = variant.endsWith(":legacy");
+                comSize = size / 4;
+        }
+    }
+
+    @Override
+    public Object run() {
+        if (legacy) {
+            int[] ints = byteArrayToIntArray(frame);
+            tokenRing.send(ints, ints.length);
+            return intArrayToByteArray(tokenRing.receive(comSize));
+        }
+        card.setCom(frame);
+        return card.getCom(comSize);
+    }
+
+    /* the conversion TokenRingToComAdapter used before the ByteBuffer overloads */
+    private static byte[] intArrayToByteArray(int[] intArray) {
+        ByteBuffer buffer = ByteBuffer.allocate(intArray.length * 4);
+        for (int value : intArray) {
+            buffer.putInt(value);
+        }
+        return Arrays.copyOf(buffer.array(), intArray.length * 4);
+    }
+
+    private static int[] byteArrayToIntArray(byte[] byteArray) {
+        int length = byteArray.length;
+        int[] intArray = new int[(length + 3) / 4];
+        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
+        for (int i = 0; i < intArray.length; i++) {
+            if (i == intArray.length - 1 && length % 4 != 0) {
+                byte[] temp = new byte[4];
+                System.arraycopy(byteArray, i * 4, temp, 0, length % 4);
+                intArray[i] = ByteBuffer.wrap(temp).getInt();
+            } else {
+                intArray[i] = buffer.getInt();
+            }
+        }
+        return intArray;
+    }
+}
@@ -0,0 +1,30 @@
+import bench.Workload;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/* see BankedMemoryBenchmark */
+public class BankedMemoryWorkload implements Workload {
+    private static final int GRANULARITY = 256;
+    private static final int SPAN = 1 << 20; //addresses the workers pick from
+
+    private Memory memory;
+    private int size;
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[size]);
+
+    @Override
+    public void setUp(String variant, int size) {
+        int banks = Integer.parseInt(variant);
+        this.size = size;
+        this.memory = ConcreteSystemFactory.getInstance().createBankedMemory(banks, (SPAN + size) / banks + GRANULARITY & -GRANULARITY, GRANULARITY);
+    }
+
+    @Override
+    public Object run() {
+        return memory.setMem(buffers.get(), 0, size, ThreadLocalRandom.current().nextInt(SPAN));
+    }
+
+    @Override
+    public Object runOther() {
+        return memory.getMem(ThreadLocalRandom.current().nextInt(SPAN), buffers.get(), 0, size);
+    }
+}
@@ -0,0 +1,33 @@
+import bench.Workload;
+
+/* see CompositeTaskBenchmark */
+public class CompositeTaskWorkload implements Workload {
+    private CompositeTask compositeTask;
+    private ReadMemoryTask readMemoryTask;
+
+    @Override
+    public void setUp(String variant, int size) {
+        ConcreteEthernet ethernet = new ConcreteEthernet(size);
+        byte[] frame = new byte[size];
+        for (int i = 0; i < size; i++) {
+            frame[i] = (byte) i;
+        }
+        ethernet.write(frame, 0, size);
+        RamToMemAdapter ramAdapter = new RamToMemAdapter(new ConcreteRam(size * 2));
+
+        ReadCardTask readCardTask = new ReadCardTask(new EthernetToComAdapter(ethernet), size);
+        readMemoryTask = new ReadMemoryTask(ramAdapter, 0, size);
+        compositeTask = new CompositeTask();
+        compositeTask.addTask(readCardTask);
+        compositeTask.addTask(new WriteMemoryTask(ramAdapter, readCardTask.getTaskData(), 0));
+        compositeTask.addTask(new WriteCardTask(new TokenRingToComAdapter(new ConcreteTokenRing(size / 4 + 1)), readCardTask.getTaskData()));
+        compositeTask.addTask(readMemoryTask);
+        compositeTask.setExecutionMode(ExecutionMode.valueOf(variant));
+    }
+
+    @Override
+    public Object run() {
+        compositeTask.execute();
+        return readMemoryTask.getTaskData();
+    }
+}
@@ -0,0 +1,68 @@
+import bench.Workload;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/* see ConcurrentRamBenchmark */
+public class ConcurrentRamWorkload implements Workload {
+    private static final int REGIONS = 8; //more than the largest group's readers or writers
+
+    private ConcreteRam ram;
+    private boolean synchronizedRam;
+    private boolean disjoint;
+    private int size;
+    private final AtomicInteger writers = new AtomicInteger();
+    private final AtomicInteger readers = new AtomicInteger();
+    private final LongAdder torn = new LongAdder();
+    private final ThreadLocal<Region> writerRegion = ThreadLocal.withInitial(() -> new Region(writers.getAndIncrement()));
+    private final ThreadLocal<Region> readerRegion = ThreadLocal.withInitial(() -> new Region(readers.getAndIncrement()));
+
+    private final class Region {
+        private final int address;
+        private final byte[] buffer = new byte[size];
+        private byte value;
+
+        private Region(int index) {
+            this.address = disjoint ? (index % REGIONS) * size + size / 2 : size / 2; //size / 2 so regions straddle a page boundary
+        }
+    }
+
+    @Override
+    public void setUp(String variant, int size) {
+        String[] parts = variant.split(":");
+        this.synchronizedRam = parts[0].equals("concurrent");
+        this.disjoint = parts[1].equals("disjoint");
+        this.size = size;
+        this.ram = synchronizedRam ? new ConcurrentRam((REGIONS + 1) * size) : new ConcreteRam((REGIONS + 1) * size);
+    }
+
+    @Override
+    public Object run() { //writer
+        Region region = writerRegion.get();
+        java.util.Arrays.fill(region.buffer, ++region.value);
+        return ram.set(region.buffer, 0, size, region.address);
+    }
+
+    @Override
+    public Object runOther() { //reader
+        Region region = readerRegion.get();
+        byte[] buffer = region.buffer;
+        ram.get(region.address, buffer, 0, size);
+        for (int i = 1; i < size; i++) {
+            if (buffer[i] != buffer[0]) {
+                torn.increment();
+                break;
+            }
+        }
+        return buffer;
+    }
+
+    @Override
+    public void tearDown() {
+        long tornReads = torn.sum();
+        System.out.println("torn reads: " + tornReads);
+        if (synchronizedRam && tornReads > 0) {
+            throw new IllegalStateException(tornReads + " torn reads on ConcurrentRam");
+        }
+    }
+}
@@ -0,0 +1,42 @@
+import bench.Workload;
+
+import java.util.concurrent.TimeUnit;
+
+/* see LoopbackCardBenchmark */
+public class LoopbackCardWorkload implements Workload {
+    private static final int FRAMES = 16;
+
+    private LoopbackCard card;
+    private WriteCardTask[] writes;
+    private ReadCardTask read;
+
+    @Override
+    public void setUp(String variant, int size) throws Exception {
+        card = new LoopbackCard(FRAMES * size, Integer.parseInt(variant), 1, TimeUnit.SECONDS);
+        byte[] frame = new byte[size];
+        for (int i = 0; i < size; i++) {
+            frame[i] = (byte) i;
+        }
+        TaskData taskData = new TaskData(frame);
+        writes = new WriteCardTask[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            writes[i] = new WriteCardTask(card, taskData);
+        }
+        read = new ReadCardTask(card, FRAMES * size);
+    }
+
+    @Override
+    public Object run() {
+        for (WriteCardTask write : writes) {
+            write.execute();
+        }
+        read.execute(); //flushes a partial batch, then waits for all frames
+        return read.getTaskData();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        System.out.println(card);
+        card.close();
+    }
+}
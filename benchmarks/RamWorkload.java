@@ -0,0 +1,30 @@
+import bench.Workload;
+
+/* see RamBenchmark */
+public class RamWorkload implements Workload {
+    private Ram ram;
+    private String operation;
+    private int size;
+    private byte[] buffer;
+
+    @Override
+    public void setUp(String variant, int size) {
+        String[] parts = variant.split(":");
+        this.ram = parts[0].equals("offHeap") ? new OffHeapRam(size * 2L) : new ConcreteRam(size * 2);
+        this.operation = parts[1];
+        this.size = size;
+        this.buffer = new byte[size];
+    }
+
+    @Override
+    public Object run() {
+        switch (operation) {
+            case "get":
+                return ram.get(size / 2, size);
+            case "getInto":
+                return ram.get(size / 2, buffer, 0, size);
+            default:
+                return ram.set(buffer, size / 2);
+        }
+    }
+}
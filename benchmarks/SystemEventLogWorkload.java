@@ -0,0 +1,39 @@
+import bench.Workload;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* see SystemEventLogBenchmark */
+public class SystemEventLogWorkload implements Workload {
+    private SystemEventLog systemEventLog;
+    private Path file;
+    private final ThreadLocal<SystemEvent> events = ThreadLocal.withInitial(() ->
+            new SystemEvent(java.lang.Thread.currentThread().getName(), "ReadMemoryTask", 0));
+
+    @Override
+    public void setUp(String variant, int size) throws Exception {
+        systemEventLog = SystemEventLog.getInstance();
+        if (variant.startsWith("file:")) {
+            systemEventLog.configure(size, OverflowPolicy.valueOf(variant.substring(5)));
+            file = Files.createTempFile("system-event-log", ".txt");
+            systemEventLog.setOutput(file);
+        }
+        else {
+            systemEventLog.configure(size, OverflowPolicy.BLOCK);
+        }
+    }
+
+    @Override
+    public Object run() {
+        systemEventLog.update(events.get());
+        return systemEventLog;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        if (file != null) {
+            systemEventLog.close();
+            Files.deleteIfExists(file);
+        }
+    }
+}
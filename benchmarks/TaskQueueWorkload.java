@@ -0,0 +1,33 @@
+import bench.Workload;
+
+/* see TaskQueueBenchmark */
+public class TaskQueueWorkload implements Workload {
+    private static final Task TASK = new Task() {
+        @Override
+        void execute() {
+        }
+
+        @Override
+        String getName() {
+            return "NoOpTask";
+        }
+    };
+
+    private TaskQueue taskQueue;
+
+    @Override
+    public void setUp(String variant, int size) {
+        taskQueue = TaskQueue.getInstance();
+        taskQueue.enableConcurrentMode(size);
+    }
+
+    @Override
+    public Object run() { //producer, never waits so a stopped consumer can't hang the iteration
+        return taskQueue.offerTask(TASK);
+    }
+
+    @Override
+    public Object runOther() { //consumer
+        return taskQueue.getNextTask();
+    }
+}
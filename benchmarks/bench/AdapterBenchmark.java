@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/* a setCom/getCom round trip through the card adapters, "legacy" is the TokenRing conversion before the ByteBuffer path */
+@State(Scope.Thread)
+public class AdapterBenchmark {
+    @Param({"ethernet", "ringBufferEthernet", "tokenRing", "tokenRing:legacy"})
+    public String variant;
+
+    @Param({"64", "4096", "65536"})
+    public int size; //bytes per frame
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("AdapterWorkload", variant, size);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object roundTrip() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/*
+ * Workers writing and reading nearby addresses of one BankedMemory at the same time; "1" bank is a single
+ * ConcurrentRam behind the same code path. Other thread counts: -t <threads>
+ */
+@State(Scope.Benchmark)
+@Threads(4)
+public class BankedMemoryBenchmark {
+    @Param({"1", "4", "8"})
+    public String variant; //number of banks
+
+    @Param({"64", "4096", "262144"})
+    public int size;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.load("BankedMemoryWorkload", variant, size);
+    }
+
+    @Benchmark
+    public Object write() {
+        return workload.run();
+    }
+
+    @Benchmark
+    public Object read() {
+        return workload.runOther();
+    }
+}
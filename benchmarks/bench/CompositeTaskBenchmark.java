@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/* CompositeTask.execute on the Client pipeline (card -> memory and card -> card, then a memory read), per ExecutionMode */
+@State(Scope.Thread)
+public class CompositeTaskBenchmark {
+    @Param({"SEQUENTIAL", "PARALLEL", "COALESCED", "COMPILED"})
+    public String variant;
+
+    @Param({"64", "4096", "65536"})
+    public int size;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("CompositeTaskWorkload", variant, size);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object execute() {
+        return workload.run();
+    }
+}
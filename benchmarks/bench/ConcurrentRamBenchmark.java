@@ -0,0 +1,80 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * Readers and writers on one ConcurrentRam at the same time. Every write fills its region with a single value,
+ * so a reader that sees two different values has seen a torn write; tear down fails the trial if that happens.
+ * "disjoint" gives every thread its own region, "shared" puts all of them on one, "plain" is an unsynchronized
+ * ConcreteRam for comparison and only reports its torn reads.
+ */
+@State(Scope.Group)
+public class ConcurrentRamBenchmark {
+    @Param({"concurrent:disjoint", "concurrent:shared", "plain:shared"})
+    public String variant;
+
+    @Param({"64", "1024"})
+    public int size;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.load("ConcurrentRamWorkload", variant, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    @Group("r1w1")
+    @GroupThreads(1)
+    public Object write1() {
+        return workload.run();
+    }
+
+    @Benchmark
+    @Group("r1w1")
+    @GroupThreads(1)
+    public Object read1() {
+        return workload.runOther();
+    }
+
+    @Benchmark
+    @Group("r2w2")
+    @GroupThreads(2)
+    public Object write2() {
+        return workload.run();
+    }
+
+    @Benchmark
+    @Group("r2w2")
+    @GroupThreads(2)
+    public Object read2() {
+        return workload.runOther();
+    }
+
+    @Benchmark
+    @Group("r4w4")
+    @GroupThreads(4)
+    public Object write4() {
+        return workload.run();
+    }
+
+    @Benchmark
+    @Group("r4w4")
+    @GroupThreads(4)
+    public Object read4() {
+        return workload.runOther();
+    }
+}
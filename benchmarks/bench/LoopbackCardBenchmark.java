@@ -0,0 +1,39 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * WriteCardTask/ReadCardTask round trips through a LoopbackCard, i.e. through the kernel's TCP loopback.
+ * Each operation writes 16 frames and reads them back; variant is how many frames share one gathering write.
+ */
+@State(Scope.Thread)
+public class LoopbackCardBenchmark {
+    @Param({"1", "4", "16"})
+    public String variant;
+
+    @Param({"64", "4096"})
+    public int size; //bytes per frame
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.load("LoopbackCardWorkload", variant, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object roundTrip() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/* ConcreteRam and OffHeapRam get/set, allocating and into a caller-supplied buffer */
+@State(Scope.Thread)
+public class RamBenchmark {
+    @Param({"heap:get", "heap:getInto", "heap:set", "offHeap:get", "offHeap:getInto", "offHeap:set"})
+    public String variant;
+
+    @Param({"64", "4096", "65536"})
+    public int size;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("RamWorkload", variant, size);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object access() {
+        return workload.run();
+    }
+}
@@ -0,0 +1,34 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/* SystemEventLog.update from several threads, keeping events in the ring only or writing them to a file */
+@State(Scope.Benchmark)
+@Threads(4)
+public class SystemEventLogBenchmark {
+    @Param({"ring", "file:BLOCK", "file:DROP"})
+    public String variant;
+
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.load("SystemEventLogWorkload", variant, 8192);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.tearDown();
+    }
+
+    @Benchmark
+    public Object update() {
+        return workload.run();
+    }
+}
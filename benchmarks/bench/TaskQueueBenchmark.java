@@ -0,0 +1,65 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * TaskQueue in concurrent mode with producers offering and consumers polling at the same time.
+ * Other splits than the ones below: -tg <producers>,<consumers>
+ */
+@State(Scope.Group)
+public class TaskQueueBenchmark {
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workload = Workload.load("TaskQueueWorkload", "concurrent", 1024);
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public Object produce1() {
+        return workload.run();
+    }
+
+    @Benchmark
+    @Group("p1c1")
+    @GroupThreads(1)
+    public Object consume1() {
+        return workload.runOther();
+    }
+
+    @Benchmark
+    @Group("p2c2")
+    @GroupThreads(2)
+    public Object produce2() {
+        return workload.run();
+    }
+
+    @Benchmark
+    @Group("p2c2")
+    @GroupThreads(2)
+    public Object consume2() {
+        return workload.runOther();
+    }
+
+    @Benchmark
+    @Group("p4c4")
+    @GroupThreads(4)
+    public Object produce4() {
+        return workload.run();
+    }
+
+    @Benchmark
+    @Group("p4c4")
+    @GroupThreads(4)
+    public Object consume4() {
+        return workload.runOther();
+    }
+}
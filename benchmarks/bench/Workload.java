@@ -0,0 +1,25 @@
+package bench;
+
+/*
+ * JMH refuses benchmark classes in the default package, and classes in a named package can't see the
+ * project's default-package classes. So every benchmark drives its code through a Workload, implemented
+ * in the default package next to the project classes and loaded by name.
+ */
+public interface Workload {
+    void setUp(String variant, int size) throws Exception;
+
+    Object run(); //the measured operation
+
+    default Object runOther() { //the second role of asymmetric benchmarks, e.g. the consumer of a queue; symmetric ones play run() twice
+        return run();
+    }
+
+    default void tearDown() throws Exception {
+    }
+
+    static Workload load(String className, String variant, int size) throws Exception {
+        Workload workload = (Workload) Class.forName(className).getDeclaredConstructor().newInstance();
+        workload.setUp(variant, size);
+        return workload;
+    }
+}
@@ -0,0 +1,228 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Memory interleaved across independent Ram banks: the address space is cut into units of granularity bytes and
+ * unit u lives in bank u % banks, at (u / banks) * granularity + the offset inside the unit. Consecutive units go
+ * to different banks, so accesses to nearby addresses from different workers spread over the banks, and a large
+ * request is split per bank and served by all of them at once.
+ * The banks synchronize themselves (ConcurrentRam for concurrent use); a bank that is already serving a request
+ * when another one arrives counts a conflict.
+ */
+class BankedMemory implements Memory{
+    private static final int PARALLEL_THRESHOLD = 1 << 16; //smaller requests aren't worth the hand-off to the pool
+
+    private final Ram[] banks;
+    private final int bankSize;
+    private final int granularity;
+    private final int unitShift;
+    private final long size;
+    private final AtomicIntegerArray busy; //requests each bank is serving right now
+    private final AtomicLongArray accesses;
+    private final AtomicLongArray conflicts;
+
+    private interface BankAccess{ //one contiguous piece of a request, inside one bank
+        int apply(Ram bank, int bankAddress, int offset, int length);
+    }
+
+    /* granularity must be a power of two and bankSize a multiple of it */
+    BankedMemory(Ram[] banks, int bankSize, int granularity){
+        if(Integer.bitCount(granularity) != 1 || bankSize % granularity != 0){
+            throw new IllegalArgumentException("granularity must be a power of two and bankSize a multiple of it");
+        }
+        this.banks = banks.clone();
+        this.bankSize = bankSize;
+        this.granularity = granularity;
+        this.unitShift = Integer.numberOfTrailingZeros(granularity);
+        this.size = (long) bankSize * banks.length;
+        this.busy = new AtomicIntegerArray(banks.length);
+        this.accesses = new AtomicLongArray(banks.length);
+        this.conflicts = new AtomicLongArray(banks.length);
+    }
+
+    @Override
+    public byte[] getMem(int addr, int size) {
+        byte[] data = new byte[size];
+        return getMem(addr, data, 0, size) < 0 ? null : data;
+    }
+
+    @Override
+    public int setMem(byte[] data, int addr) {
+        return setMem(data, 0, data.length, addr);
+    }
+
+    @Override
+    public int getMem(int addr, byte[] dst, int offset, int length) {
+        return access(addr, length, (bank, bankAddress, position, chunk) -> bank.get(bankAddress, dst, offset + position, chunk));
+    }
+
+    @Override
+    public int setMem(byte[] src, int offset, int length, int addr) {
+        return access(addr, length, (bank, bankAddress, position, chunk) -> bank.set(src, offset + position, chunk, bankAddress));
+    }
+
+    @Override
+    public int getMem(int addr, ByteBuffer dst) {
+        int length = dst.remaining();
+        if(dst.hasArray()){
+            int result = getMem(addr, dst.array(), dst.arrayOffset() + dst.position(), length);
+            if(result >= 0){
+                dst.position(dst.position() + length);
+            }
+            return result;
+        }
+        int start = dst.position();
+        int result = access(addr, length, (bank, bankAddress, position, chunk) -> {
+            ByteBuffer piece = dst.duplicate(); //each bank fills its own pieces, possibly at the same time
+            piece.position(start + position).limit(start + position + chunk);
+            return bank.get(bankAddress, piece);
+        });
+        if(result >= 0){
+            dst.position(start + length);
+        }
+        return result;
+    }
+
+    @Override
+    public int setMem(ByteBuffer src, int addr) {
+        int length = src.remaining();
+        int start = src.position();
+        int result = access(addr, length, (bank, bankAddress, position, chunk) -> {
+            ByteBuffer piece = src.duplicate();
+            piece.position(start + position).limit(start + position + chunk);
+            return bank.set(piece, bankAddress);
+        });
+        if(result >= 0){
+            src.position(start + length);
+        }
+        return result;
+    }
+
+    @Override
+    public ByteBuffer viewMem(int addr, int size) { //no copy only if the range stays inside one unit
+        if(size > 0 && inBounds(addr, size) && addr >>> unitShift == (addr + size - 1) >>> unitShift){
+            return banks[bankOf(addr)].slice(bankAddress(addr), size);
+        }
+        byte[] data = getMem(addr, size);
+        return data == null ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteBuffer viewMemWritable(int addr, int size) {
+        if(size > 0 && inBounds(addr, size) && addr >>> unitShift == (addr + size - 1) >>> unitShift){
+            return banks[bankOf(addr)].writableSlice(bankAddress(addr), size);
+        }
+        return null;
+    }
+
+    @Override
+    public void commitMem(int addr, int size) {
+        if(size > 0 && inBounds(addr, size)){
+            banks[bankOf(addr)].commit(bankAddress(addr), size);
+        }
+    }
+
+    /* splits [addr, addr + length) into per-bank pieces, every bank goes through its own pieces in order */
+    private int access(int addr, int length, BankAccess bankAccess) {
+        if(!inBounds(addr, length)){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        if(length == 0){
+            return 0;
+        }
+        int units = (int) ((((long) addr + length - 1) >>> unitShift) - (addr >>> unitShift) + 1);
+        int involved = Math.min(units, banks.length);
+        if(involved == 1 || length < PARALLEL_THRESHOLD || Runtime.getRuntime().availableProcessors() == 1){
+            int result = 0;
+            for(int i = 0; i < involved && result >= 0; i++){
+                result = accessBank(addr, length, i, bankAccess);
+            }
+            return result;
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[involved];
+        int[] results = new int[involved];
+        for(int i = 0; i < involved; i++){
+            int first = i;
+            futures[i] = CompletableFuture.runAsync(() -> results[first] = accessBank(addr, length, first, bankAccess), ForkJoinPool.commonPool());
+        }
+        CompletableFuture.allOf(futures).join();
+        for(int result : results){
+            if(result < 0){
+                return -1;
+            }
+        }
+        return 0;
+    }
+
+    /* the pieces of the request in the bank of its (first + k * banks)-th unit */
+    private int accessBank(int addr, int length, int first, BankAccess bankAccess) {
+        long end = (long) addr + length;
+        long unit = (addr >>> unitShift) + first;
+        int bank = (int) (unit % banks.length);
+        if(busy.getAndIncrement(bank) > 0){
+            conflicts.incrementAndGet(bank);
+        }
+        accesses.incrementAndGet(bank);
+        try {
+            for(; unit << unitShift < end; unit += banks.length){
+                long start = Math.max(addr, unit << unitShift);
+                int chunk = (int) (Math.min(end, (unit + 1) << unitShift) - start);
+                if(bankAccess.apply(banks[bank], bankAddress(start), (int) (start - addr), chunk) < 0){
+                    return -1;
+                }
+            }
+            return 0;
+        }
+        finally {
+            busy.decrementAndGet(bank);
+        }
+    }
+
+    private int bankOf(long address) {
+        return (int) ((address >>> unitShift) % banks.length);
+    }
+
+    private int bankAddress(long address) {
+        return (int) (((address >>> unitShift) / banks.length << unitShift) + (address & (granularity - 1)));
+    }
+
+    private boolean inBounds(int address, int length) {
+        return address >= 0 && length >= 0 && address <= size - length;
+    }
+
+    public int getBankCount() {
+        return banks.length;
+    }
+
+    public long getAccessCount(int bank) {
+        return accesses.get(bank);
+    }
+
+    public long getConflictCount(int bank) { //accesses that found the bank already serving another request
+        return conflicts.get(bank);
+    }
+
+    public long getConflictCount() {
+        long total = 0;
+        for(int i = 0; i < banks.length; i++){
+            total += conflicts.get(i);
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("BankedMemory{banks=").append(banks.length)
+                .append(", bankSize=").append(bankSize)
+                .append(", granularity=").append(granularity)
+                .append(", conflicts=[");
+        for(int i = 0; i < banks.length; i++){
+            builder.append(i > 0 ? ", " : "").append(conflicts.get(i)).append('/').append(accesses.get(i));
+        }
+        return builder.append("]}").toString();
+    }
+}
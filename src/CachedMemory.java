@@ -0,0 +1,341 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+enum EvictionPolicy{ //which line of a full set CachedMemory gives up
+    LRU, //least recently used
+    CLOCK //second chance, a line survives one sweep if it was used since the last one
+}
+
+enum WritePolicy{
+    WRITE_BACK, //writes stay in the cache until the line is evicted or flushed
+    WRITE_THROUGH //writes go straight to the backing memory, cached copies are updated
+}
+
+class CachedMemory implements Memory{ //Decorator, set-associative cache in front of any Memory
+    private final Memory backing;
+    private final int lineSize;
+    private final int lineShift;
+    private final int sets;
+    private final int ways;
+    private final EvictionPolicy evictionPolicy;
+    private final WritePolicy writePolicy;
+
+    /* line i of set s lives at index s * ways + i */
+    private final long[] tags; //line number (address / lineSize), -1 when empty
+    private final boolean[] dirty;
+    private final long[] lastUsed; //LRU
+    private final boolean[] referenced; //CLOCK
+    private final int[] clockHands;
+    private final byte[] lines;
+    private long useCounter;
+    private long verifiedEnd; //every line below this address is known to lie inside the backing memory
+    private final byte[] probe = new byte[1];
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    /* lineSize must be a power of two, capacity a multiple of lineSize * associativity */
+    CachedMemory(Memory backing, int lineSize, int capacity, int associativity, EvictionPolicy evictionPolicy, WritePolicy writePolicy){
+        if(Integer.bitCount(lineSize) != 1 || capacity % (lineSize * associativity) != 0){
+            throw new IllegalArgumentException("lineSize must be a power of two and capacity a multiple of lineSize * associativity");
+        }
+        this.backing = backing;
+        this.lineSize = lineSize;
+        this.lineShift = Integer.numberOfTrailingZeros(lineSize);
+        this.ways = associativity;
+        this.sets = capacity / (lineSize * associativity);
+        this.evictionPolicy = evictionPolicy;
+        this.writePolicy = writePolicy;
+        int lineCount = sets * ways;
+        this.tags = new long[lineCount];
+        Arrays.fill(tags, -1);
+        this.dirty = new boolean[lineCount];
+        this.lastUsed = new long[lineCount];
+        this.referenced = new boolean[lineCount];
+        this.clockHands = new int[sets];
+        this.lines = new byte[capacity];
+    }
+
+    @Override
+    public byte[] getMem(int addr, int size) {
+        byte[] data = new byte[size];
+        return getMem(addr, data, 0, size) < 0 ? null : data;
+    }
+
+    @Override
+    public int setMem(byte[] data, int addr) {
+        return setMem(data, 0, data.length, addr);
+    }
+
+    @Override
+    public synchronized int getMem(int addr, byte[] dst, int offset, int length) {
+        int done = 0;
+        while(done < length){
+            int address = addr + done;
+            int inLine = address & (lineSize - 1);
+            int chunk = Math.min(length - done, lineSize - inLine);
+            int line = lookup(address >>> lineShift, true);
+            if(line < 0){ //the line can't be cached (it runs past the end of the backing memory), read around the cache
+                if(readAround(address, dst, offset + done, chunk) < 0){
+                    return -1;
+                }
+            }
+            else {
+                System.arraycopy(lines, line * lineSize + inLine, dst, offset + done, chunk);
+            }
+            done += chunk;
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized int setMem(byte[] src, int offset, int length, int addr) {
+        if(writePolicy == WritePolicy.WRITE_THROUGH){
+            int result = backing.setMem(src, offset, length, addr);
+            if(result >= 0){
+                updateCachedCopies(src, offset, length, addr);
+            }
+            return result;
+        }
+        int done = 0;
+        while(done < length){
+            int address = addr + done;
+            int inLine = address & (lineSize - 1);
+            int chunk = Math.min(length - done, lineSize - inLine);
+            boolean wholeLine = chunk == lineSize; //doesn't need the old contents, but nothing checks its bounds then
+            if(wholeLine && !inBacking(address >>> lineShift)){
+                return -1; //the probe has reported it
+            }
+            int line = lookup(address >>> lineShift, !wholeLine);
+            if(line < 0){
+                if(backing.setMem(src, offset + done, chunk, address) < 0){
+                    return -1;
+                }
+            }
+            else {
+                System.arraycopy(src, offset + done, lines, line * lineSize + inLine, chunk);
+                dirty[line] = true;
+            }
+            done += chunk;
+        }
+        return 0;
+    }
+
+    @Override
+    public int getMem(int addr, ByteBuffer dst) {
+        int length = dst.remaining();
+        if(dst.hasArray()){
+            int result = getMem(addr, dst.array(), dst.arrayOffset() + dst.position(), length);
+            if(result >= 0){
+                dst.position(dst.position() + length);
+            }
+            return result;
+        }
+        byte[] data = new byte[length];
+        int result = getMem(addr, data, 0, length);
+        if(result >= 0){
+            dst.put(data);
+        }
+        return result;
+    }
+
+    @Override
+    public int setMem(ByteBuffer src, int addr) {
+        int length = src.remaining();
+        if(src.hasArray()){
+            int result = setMem(src.array(), src.arrayOffset() + src.position(), length, addr);
+            if(result >= 0){
+                src.position(src.position() + length);
+            }
+            return result;
+        }
+        byte[] data = new byte[length];
+        src.duplicate().get(data);
+        int result = setMem(data, 0, length, addr);
+        if(result >= 0){
+            src.position(src.position() + length);
+        }
+        return result;
+    }
+
+    @Override
+    public ByteBuffer viewMem(int addr, int size) { //a copy, cached lines aren't contiguous
+        byte[] data = getMem(addr, size);
+        return data == null ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    @Override
+    public Object getDevice() {
+        return backing.getDevice();
+    }
+
+    /* writes every dirty line back to the backing memory, -1 if one of them couldn't be written (it stays dirty) */
+    public synchronized int flush() {
+        int result = 0;
+        for(int line = 0; line < tags.length; line++){
+            if(writeBack(line) < 0){
+                result = -1;
+            }
+        }
+        return result;
+    }
+
+    /* returns the index of the cached line, loading it on a miss if fill is set; -1 if it can't be cached.
+       Without fill the caller has to check the line is inside the backing memory first. */
+    private int lookup(long lineNumber, boolean fill) {
+        int set = (int) (lineNumber % sets);
+        int first = set * ways;
+        for(int line = first; line < first + ways; line++){
+            if(tags[line] == lineNumber){
+                hits++;
+                touch(line);
+                return line;
+            }
+        }
+        misses++;
+        int victim = chooseVictim(set);
+        if(tags[victim] != -1){
+            if(writeBack(victim) < 0){ //the victim keeps its data, the access goes around the cache
+                return -1;
+            }
+            evictions++;
+            tags[victim] = -1;
+        }
+        if(fill){
+            if(backing.getMem((int) (lineNumber << lineShift), lines, victim * lineSize, lineSize) < 0){
+                return -1;
+            }
+            verifiedEnd = Math.max(verifiedEnd, (lineNumber + 1) << lineShift);
+        }
+        tags[victim] = lineNumber;
+        dirty[victim] = false;
+        touch(victim);
+        return victim;
+    }
+
+    private int chooseVictim(int set) {
+        int first = set * ways;
+        for(int line = first; line < first + ways; line++){
+            if(tags[line] == -1){
+                return line;
+            }
+        }
+        if(evictionPolicy == EvictionPolicy.LRU){
+            int victim = first;
+            for(int line = first + 1; line < first + ways; line++){
+                if(lastUsed[line] < lastUsed[victim]){
+                    victim = line;
+                }
+            }
+            return victim;
+        }
+        while(true){ //CLOCK, ends within two sweeps
+            int line = first + clockHands[set];
+            clockHands[set] = (clockHands[set] + 1) % ways;
+            if(!referenced[line]){
+                return line;
+            }
+            referenced[line] = false;
+        }
+    }
+
+    private void touch(int line) {
+        lastUsed[line] = ++useCounter;
+        referenced[line] = true;
+    }
+
+    private int writeBack(int line) {
+        if(tags[line] != -1 && dirty[line]){
+            if(backing.setMem(lines, line * lineSize, lineSize, (int) (tags[line] << lineShift)) < 0){
+                return -1; //stays dirty, nothing is lost
+            }
+            dirty[line] = false;
+            writeBacks++;
+        }
+        return 0;
+    }
+
+    private boolean inBacking(long lineNumber) { //probes the last byte of the line unless a fill already covered it
+        long end = (lineNumber + 1) << lineShift;
+        if(end <= verifiedEnd){
+            return true;
+        }
+        if(backing.getMem((int) (end - 1), probe, 0, 1) < 0){
+            return false;
+        }
+        verifiedEnd = end;
+        return true;
+    }
+
+    private int readAround(int address, byte[] dst, int offset, int length) {
+        int result = backing.getMem(address, dst, offset, length);
+        if(result >= 0){ //dirty cached bytes are newer than the backing memory
+            updateFromCache(address, dst, offset, length);
+        }
+        return result;
+    }
+
+    private void updateFromCache(int address, byte[] dst, int offset, int length) {
+        int line = find(address >>> lineShift);
+        if(line >= 0 && dirty[line]){
+            System.arraycopy(lines, line * lineSize + (address & (lineSize - 1)), dst, offset, length);
+        }
+    }
+
+    private void updateCachedCopies(byte[] src, int offset, int length, int addr) { //write-through keeps cached lines current, without allocating
+        int done = 0;
+        while(done < length){
+            int address = addr + done;
+            int inLine = address & (lineSize - 1);
+            int chunk = Math.min(length - done, lineSize - inLine);
+            int line = find(address >>> lineShift);
+            if(line >= 0){
+                System.arraycopy(src, offset + done, lines, line * lineSize + inLine, chunk);
+            }
+            done += chunk;
+        }
+    }
+
+    private int find(long lineNumber) {
+        int first = (int) (lineNumber % sets) * ways;
+        for(int line = first; line < first + ways; line++){
+            if(tags[line] == lineNumber){
+                return line;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getWriteBacks() { //lines written to the backing memory
+        return writeBacks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CachedMemory{" +
+                "lineSize=" + lineSize +
+                ", sets=" + sets +
+                ", ways=" + ways +
+                ", " + evictionPolicy +
+                ", " + writePolicy +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", writeBacks=" + writeBacks +
+                '}';
+    }
+}
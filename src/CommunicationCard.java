@@ -1,41 +1,171 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.StampedLock;
 
 interface Ram{ //Abstract Product, Adaptee
     byte[] get(int address, int size);
     int set(byte[] data, int address);
 
+    /* bulk overloads, the caller owns the buffers so nothing is allocated per call.
+       Like set, they return 0, or -1 if the range is out of bounds. */
+    int get(int address, byte[] dst, int offset, int length);
+    int set(byte[] src, int offset, int length, int address);
+    int get(int address, ByteBuffer dst); //fills dst.remaining() bytes
+    int set(ByteBuffer src, int address); //drains src.remaining() bytes
+    ByteBuffer slice(int address, int size); //read-only view, no copy, null if the range is out of bounds
+
+    /* writable view for transfers straight into the Ram, null if the range can't be viewed without a copy.
+       Writes through the view only count once commit is called for the range. */
+    default ByteBuffer writableSlice(int address, int size){
+        return null;
+    }
+    default void commit(int address, int size){
+    }
+
 }
 class ConcreteRam implements Ram{ //Concrete Product, Adaptee
+    static final int PAGE_SHIFT = 8; //256 byte pages for dirty tracking
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
     private byte[] data;
+    private final AtomicLongArray dirtyPages; //one bit per page, set by every write, cleared by RamCheckpointer
 
     public ConcreteRam() {
-        this.data = new byte[1024]; //1 KB
+        this(1024); //1 KB
     }
     public ConcreteRam(int size){
         this.data = new byte[size];
+        this.dirtyPages = new AtomicLongArray((pageCount() + 63) >>> 6);
     }
     public byte[] get(int address, int size){
         byte[] data = new byte[size];
-        for(int i = 0; i < size; i++){
-            data[i] = this.data[address + i];
-        }
+        System.arraycopy(this.data, address, data, 0, size);
         return data;
     }
 
     public int set(byte[] data, int address){
-        try {
-            for(int i = 0; i < data.length; i++){
-                this.data[address + i] = data[i];
-            }
-            return 0;
+        return set(data, 0, data.length, address);
+    }
+
+    public int get(int address, byte[] dst, int offset, int length){
+        if(!inBounds(address, length)){
+            System.out.println("Error: Out of bounds");
+            return -1;
         }
-        catch (ArrayIndexOutOfBoundsException e){
+        System.arraycopy(data, address, dst, offset, length);
+        return 0;
+    }
+
+    public int set(byte[] src, int offset, int length, int address){
+        if(!inBounds(address, length)){
             System.out.println("Error: Out of bounds");
             return -1;
         }
+        System.arraycopy(src, offset, data, address, length);
+        markDirty(address, length);
+        return 0;
+    }
+
+    public int get(int address, ByteBuffer dst){
+        int length = dst.remaining();
+        if(!inBounds(address, length)){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        dst.put(data, address, length);
+        return 0;
+    }
+
+    public int set(ByteBuffer src, int address){
+        int length = src.remaining();
+        if(!inBounds(address, length)){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        src.get(data, address, length);
+        markDirty(address, length);
+        return 0;
+    }
+
+    public ByteBuffer slice(int address, int size){
+        if(!inBounds(address, size)){
+            System.out.println("Error: Out of bounds");
+            return null;
+        }
+        return ByteBuffer.wrap(data, address, size).slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteBuffer writableSlice(int address, int size){
+        if(!inBounds(address, size)){
+            System.out.println("Error: Out of bounds");
+            return null;
+        }
+        return ByteBuffer.wrap(data, address, size).slice();
+    }
+
+    @Override
+    public void commit(int address, int size){ //the pages go into the next checkpoint
+        markDirty(address, size);
+    }
+
+    int size(){
+        return data.length;
+    }
+
+    int pageCount(){
+        return (data.length + PAGE_SIZE - 1) >>> PAGE_SHIFT;
+    }
+
+    /* marks after the copy, so a checkpoint that cleared the bit mid-write still sees the page again next time */
+    private void markDirty(int address, int length){
+        if(length == 0){
+            return;
+        }
+        int first = address >>> PAGE_SHIFT;
+        int last = (address + length - 1) >>> PAGE_SHIFT;
+        for(int word = first >>> 6; word <= last >>> 6; word++){
+            int from = Math.max(first, word << 6) & 63;
+            int to = Math.min(last, (word << 6) + 63) & 63;
+            long mask = (-1L >>> (63 - to)) & (-1L << from);
+            if((dirtyPages.get(word) & mask) != mask){ //repeated writes to a dirty page don't contend on the word
+                dirtyPages.getAndAccumulate(word, mask, (current, bits) -> current | bits);
+            }
+        }
+    }
+
+    boolean clearDirty(int page){ //test-and-clear, true if the page was written since the last clear
+        long bit = 1L << (page & 63);
+        if((dirtyPages.get(page >>> 6) & bit) == 0){
+            return false;
+        }
+        return (dirtyPages.getAndAccumulate(page >>> 6, ~bit, (current, bits) -> current & bits) & bit) != 0;
+    }
+
+    void copyPage(int page, ByteBuffer dst){ //no lock here, ConcurrentRam takes the page's
+        int address = page << PAGE_SHIFT;
+        dst.put(data, address, Math.min(PAGE_SIZE, data.length - address));
+    }
+
+    void load(ByteBuffer src){ //restores contents without marking pages dirty
+        src.get(data, 0, data.length);
+    }
+
+    void loadPage(int page, ByteBuffer src){ //like load, for one page
+        int address = page << PAGE_SHIFT;
+        src.get(data, address, Math.min(PAGE_SIZE, data.length - address));
+    }
 
+    private boolean inBounds(int address, int length){
+        return address >= 0 && length >= 0 && address <= data.length - length;
     }
 
     @Override
@@ -45,124 +175,538 @@ class ConcreteRam implements Ram{ //Concrete Product, Adaptee
                 '}';
     }
 }
+/*
+ * ConcreteRam that several workers can use at once. Every page has a StampedLock: writers lock the pages they touch
+ * in ascending order, readers copy optimistically and only take read locks if a writer got in between.
+ * Writes to different pages run in parallel and a reader never waits for a write to another page.
+ */
+class ConcurrentRam extends ConcreteRam{ //Concrete Product, Adaptee
+    private final StampedLock[] locks;
 
-interface CommunicationCard{ //common interface for Ethernet and TokenRing, Target for adapter, Receiver in Command Pattern
-    byte[] getCom(int size);
-    int setCom(byte[] data);
-    String getName();
+    public ConcurrentRam() {
+        this(1024); //1 KB
+    }
+    public ConcurrentRam(int size){
+        super(size);
+        locks = new StampedLock[pageCount()];
+        for(int i = 0; i < locks.length; i++){
+            locks[i] = new StampedLock();
+        }
+    }
 
-}
-class TokenRingToComAdapter implements CommunicationCard{ //Adapter for TokenRing
-    private TokenRing tokenRing;
-    TokenRingToComAdapter(TokenRing tokenRing){
-        this.tokenRing = tokenRing;
+    @Override
+    public byte[] get(int address, int size){
+        byte[] data = new byte[size];
+        if(get(address, data, 0, size) < 0){
+            throw new IndexOutOfBoundsException("address " + address + ", size " + size);
+        }
+        return data;
     }
+
     @Override
-    public byte[] getCom(int size) {
-        int[] data = tokenRing.receive(size);
-        byte[] convertedData = intArrayToByteArray(data);
+    public int get(int address, byte[] dst, int offset, int length){
+        if(!lockable(address, length)){
+            return super.get(address, dst, offset, length); //reports the error
+        }
+        int first = address >>> PAGE_SHIFT;
+        int last = (address + length - 1) >>> PAGE_SHIFT;
+        if(first == last){ //the common case, no stamp array
+            long stamp = locks[first].tryOptimisticRead();
+            if(stamp != 0){
+                super.get(address, dst, offset, length);
+                if(locks[first].validate(stamp)){
+                    return 0;
+                }
+            }
+        }
+        else {
+            long[] stamps = new long[last - first + 1];
+            if(tryOptimistic(first, stamps)){
+                super.get(address, dst, offset, length);
+                if(validate(first, stamps)){
+                    return 0;
+                }
+            }
+        }
+        long[] stamps = new long[last - first + 1]; //a writer got in, copy again under read locks
+        for(int page = first; page <= last; page++){
+            stamps[page - first] = locks[page].readLock();
+        }
+        try {
+            return super.get(address, dst, offset, length);
+        }
+        finally {
+            for(int page = last; page >= first; page--){
+                locks[page].unlockRead(stamps[page - first]);
+            }
+        }
+    }
 
+    @Override
+    public int get(int address, ByteBuffer dst){
+        int length = dst.remaining();
+        if(dst.hasArray()){
+            int result = get(address, dst.array(), dst.arrayOffset() + dst.position(), length);
+            if(result >= 0){
+                dst.position(dst.position() + length);
+            }
+            return result;
+        }
+        byte[] data = new byte[length];
+        int result = get(address, data, 0, length);
+        if(result >= 0){
+            dst.put(data);
+        }
+        return result;
+    }
 
-        return convertedData;
+    @Override
+    public int set(byte[] src, int offset, int length, int address){
+        if(!lockable(address, length)){
+            return super.set(src, offset, length, address);
+        }
+        int first = address >>> PAGE_SHIFT;
+        int last = (address + length - 1) >>> PAGE_SHIFT;
+        long[] stamps = lockPages(first, last);
+        try {
+            return super.set(src, offset, length, address);
+        }
+        finally {
+            unlockPages(first, last, stamps);
+        }
     }
+
     @Override
-    public int setCom(byte[] data) {
-        int[] convertedData = byteArrayToIntArray(data);
+    public int set(ByteBuffer src, int address){
+        int length = src.remaining();
+        if(!lockable(address, length)){
+            return super.set(src, address);
+        }
+        int first = address >>> PAGE_SHIFT;
+        int last = (address + length - 1) >>> PAGE_SHIFT;
+        long[] stamps = lockPages(first, last);
+        try {
+            return super.set(src, address);
+        }
+        finally {
+            unlockPages(first, last, stamps);
+        }
+    }
 
-        return tokenRing.send(convertedData, convertedData.length);
+    @Override
+    public ByteBuffer slice(int address, int size){ //a consistent copy, a live view would see writes half done
+        byte[] data = new byte[size < 0 ? 0 : size];
+        return get(address, data, 0, size) < 0 ? null : ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
 
+    @Override
+    public ByteBuffer writableSlice(int address, int size){ //writes have to take the page locks, so no view
+        return null;
     }
 
     @Override
-    public String getName() {
-        return "TokenRing";
+    void copyPage(int page, ByteBuffer dst){ //under the read lock, a checkpoint never holds half a write
+        long stamp = locks[page].readLock();
+        try {
+            super.copyPage(page, dst);
+        }
+        finally {
+            locks[page].unlockRead(stamp);
+        }
     }
 
+    private boolean lockable(int address, int length){ //in bounds and not empty
+        return address >= 0 && length > 0 && address <= size() - length;
+    }
 
+    private boolean tryOptimistic(int first, long[] stamps){
+        for(int i = 0; i < stamps.length; i++){
+            stamps[i] = locks[first + i].tryOptimisticRead();
+            if(stamps[i] == 0){
+                return false;
+            }
+        }
+        return true;
+    }
 
-    private static byte[] intArrayToByteArray(int[] intArray) {
-        int length = intArray.length;
-        int byteLength = length*4;
+    private boolean validate(int first, long[] stamps){
+        for(int i = 0; i < stamps.length; i++){
+            if(!locks[first + i].validate(stamps[i])){
+                return false;
+            }
+        }
+        return true;
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(byteLength);
-        buffer.order(ByteOrder.BIG_ENDIAN); // Set the byte order if needed
+    private long[] lockPages(int first, int last){ //ascending order, two writers can't deadlock
+        long[] stamps = new long[last - first + 1];
+        for(int page = first; page <= last; page++){
+            stamps[page - first] = locks[page].writeLock();
+        }
+        return stamps;
+    }
 
-        for (int i = 0; i < length; i++) {
-            buffer.putInt(intArray[i]);
+    private void unlockPages(int first, int last, long[] stamps){
+        for(int page = last; page >= first; page--){
+            locks[page].unlockWrite(stamps[page - first]);
         }
+    }
+}
+class OffHeapRam implements Ram{ //Concrete Product, Adaptee (off-heap, optionally memory-mapped)
+    private static final int SEGMENT_SHIFT = 30; //1 GB per segment, a single ByteBuffer can't go over 2 GB
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final ByteBuffer[] segments;
+    private final long size;
+    private final boolean mapped;
 
-        return Arrays.copyOf(buffer.array(), byteLength);
+    public OffHeapRam(long size){ //direct buffers, outside of the GC heap
+        this.size = size;
+        this.mapped = false;
+        this.segments = new ByteBuffer[segmentCount(size)];
+        for(int i = 0; i < segments.length; i++){
+            segments[i] = ByteBuffer.allocateDirect(segmentLength(size, i));
+        }
+    }
+    public OffHeapRam(Path file, long size) throws IOException{ //file-backed, contents survive the process
+        this.size = size;
+        this.mapped = true;
+        this.segments = new ByteBuffer[segmentCount(size)];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for(int i = 0; i < segments.length; i++){ //the mapping stays valid after the channel is closed
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i << SEGMENT_SHIFT, segmentLength(size, i));
+            }
+        }
+    }
+
+    private static int segmentCount(long size){
+        return (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    }
+    private static int segmentLength(long size, int segment){
+        return (int) Math.min(SEGMENT_SIZE, size - ((long) segment << SEGMENT_SHIFT));
     }
 
-    private static int[] byteArrayToIntArray(byte[] byteArray) {
-        int[] intArray;
-        int length = byteArray.length;
+    public long size(){
+        return size;
+    }
 
-        if (length % 4 == 0) {
-            intArray = new int[length / 4];
-        } else {
-            intArray = new int[length / 4 + 1];
+    public byte[] get(int address, int size){
+        return get((long) address, size);
+    }
+    public byte[] get(long address, int size){ //addresses above 2 GB are only reachable through the long overloads
+        if(!inBounds(address, size)){ //throws like ConcreteRam.get, a null would only fail later in whoever writes it out
+            throw new IndexOutOfBoundsException("address " + address + ", size " + size);
         }
+        byte[] data = new byte[size];
+        get(address, data, 0, size);
+        return data;
+    }
+
+    public int set(byte[] data, int address){
+        return set(data, 0, data.length, (long) address);
+    }
+    public int set(byte[] data, long address){
+        return set(data, 0, data.length, address);
+    }
+
+    public int get(int address, byte[] dst, int offset, int length){
+        return get((long) address, dst, offset, length);
+    }
+    public int get(long address, byte[] dst, int offset, int length){
+        if(!inBounds(address, length)){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        int copied = 0;
+        while(copied < length){ //a range may straddle two segments
+            ByteBuffer segment = segmentAt(address + copied, length - copied);
+            int chunk = segment.remaining();
+            segment.get(dst, offset + copied, chunk);
+            copied += chunk;
+        }
+        return 0;
+    }
+
+    public int set(byte[] src, int offset, int length, int address){
+        return set(src, offset, length, (long) address);
+    }
+    public int set(byte[] src, int offset, int length, long address){
+        if(!inBounds(address, length)){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        int copied = 0;
+        while(copied < length){
+            ByteBuffer segment = segmentAt(address + copied, length - copied);
+            int chunk = segment.remaining();
+            segment.put(src, offset + copied, chunk);
+            copied += chunk;
+        }
+        return 0;
+    }
+
+    public int get(int address, ByteBuffer dst){
+        return get((long) address, dst);
+    }
+    public int get(long address, ByteBuffer dst){
+        int length = dst.remaining();
+        if(!inBounds(address, length)){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        int copied = 0;
+        while(copied < length){
+            ByteBuffer segment = segmentAt(address + copied, length - copied);
+            copied += segment.remaining();
+            dst.put(segment);
+        }
+        return 0;
+    }
+
+    public int set(ByteBuffer src, int address){
+        return set(src, (long) address);
+    }
+    public int set(ByteBuffer src, long address){
+        int length = src.remaining();
+        if(!inBounds(address, length)){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        int copied = 0;
+        int limit = src.limit();
+        while(copied < length){
+            ByteBuffer segment = segmentAt(address + copied, length - copied);
+            int chunk = segment.remaining();
+            src.limit(src.position() + chunk);
+            segment.put(src);
+            copied += chunk;
+        }
+        src.limit(limit);
+        return 0;
+    }
+
+    public ByteBuffer slice(int address, int size){
+        return slice((long) address, size);
+    }
+    public ByteBuffer slice(long address, int size){ //only ranges inside one segment can be viewed without a copy
+        if(!inBounds(address, size)){
+            System.out.println("Error: Out of bounds");
+            return null;
+        }
+        ByteBuffer segment = segmentAt(address, size);
+        if(segment.remaining() < size){
+            return ByteBuffer.wrap(get(address, size)).asReadOnlyBuffer();
+        }
+        return segment.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteBuffer writableSlice(int address, int size){
+        if(!inBounds(address, size)){
+            System.out.println("Error: Out of bounds");
+            return null;
+        }
+        ByteBuffer segment = segmentAt(address, size);
+        return segment.remaining() < size ? null : segment.slice();
+    }
+
+    private boolean inBounds(long address, int length){
+        return address >= 0 && length >= 0 && address <= size - length;
+    }
+
+    private ByteBuffer segmentAt(long address, int length){ //independent view of the segment holding address, positioned on the range
+        ByteBuffer segment = segments[(int) (address >>> SEGMENT_SHIFT)].duplicate();
+        int offset = (int) (address & SEGMENT_MASK);
+        segment.position(offset);
+        segment.limit(offset + Math.min(length, segment.capacity() - offset));
+        return segment;
+    }
 
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        buffer.order(ByteOrder.BIG_ENDIAN); // Set the byte order if needed
+    @Override
+    public String toString() { //printing the whole content is not an option for gigabytes
+        return "OffHeapRam{" +
+                "size=" + size +
+                ", segments=" + segments.length +
+                ", mapped=" + mapped +
+                '}';
+    }
+}
+
+interface CommunicationCard{ //common interface for Ethernet and TokenRing, Target for adapter, Receiver in Command Pattern
+    byte[] getCom(int size);
+    int setCom(byte[] data);
+    String getName();
+
+    default int getComLength(int size){ //bytes getCom(size) returns
+        return size;
+    }
+
+    default int getCom(byte[] dst, int offset, int length){ //fills dst in place, length is in bytes
+        byte[] data = getCom(length);
+        int copied = Math.min(length, data.length);
+        System.arraycopy(data, 0, dst, offset, copied);
+        Arrays.fill(dst, offset + copied, offset + length, (byte) 0);
+        return length;
+    }
 
-        for (int i = 0; i < intArray.length; i++) {
-            if (i == intArray.length - 1 && length % 4 != 0) {
-                byte[] temp = new byte[4];
-                System.arraycopy(byteArray, i * 4, temp, 0, length % 4);
-                intArray[i] = ByteBuffer.wrap(temp).getInt();
-            } else {
-                intArray[i] = buffer.getInt();
+    default int getCom(ByteBuffer dst){ //fills dst.remaining() bytes, same as getCom(byte[], int, int)
+        int length = dst.remaining();
+        if(dst.hasArray()){
+            int result = getCom(dst.array(), dst.arrayOffset() + dst.position(), length);
+            if(result >= 0){
+                dst.position(dst.position() + length);
             }
+            return result;
+        }
+        byte[] data = new byte[length];
+        int result = getCom(data, 0, length);
+        if(result >= 0){
+            dst.put(data);
+        }
+        return result;
+    }
+
+    default int setCom(ByteBuffer src){ //sends src.remaining() bytes
+        if(src.hasArray() && src.arrayOffset() + src.position() == 0 && src.remaining() == src.array().length){
+            int result = setCom(src.array());
+            src.position(src.limit());
+            return result;
         }
+        byte[] data = new byte[src.remaining()];
+        src.get(data);
+        return setCom(data);
+    }
+
+    default Object getDevice(){ //the device behind the card, two adapters over one device share it
+        return this;
+    }
+
+}
+class TokenRingToComAdapter implements CommunicationCard{ //Adapter for TokenRing
+    private TokenRing tokenRing;
+    TokenRingToComAdapter(TokenRing tokenRing){
+        this.tokenRing = tokenRing;
+    }
+    @Override
+    public byte[] getCom(int size) { //size is in ints, the ring converts straight into the returned array
+        byte[] convertedData = new byte[size * 4];
+        tokenRing.receive(ByteBuffer.wrap(convertedData));
+
+        return convertedData;
+    }
+    @Override
+    public int setCom(byte[] data) {
+        return tokenRing.send(ByteBuffer.wrap(data));
+
+    }
+
+    @Override
+    public int getComLength(int size) {
+        return size * 4;
+    }
+
+    @Override
+    public int getCom(byte[] dst, int offset, int length) {
+        return tokenRing.receive(ByteBuffer.wrap(dst, offset, length)) < 0 ? -1 : length;
+    }
+
+    @Override
+    public int getCom(ByteBuffer dst) { //the ring converts straight into dst, heap or direct
+        int length = dst.remaining();
+        return tokenRing.receive(dst) < 0 ? -1 : length;
+    }
+
+    @Override
+    public int setCom(ByteBuffer src) {
+        return tokenRing.send(src);
+    }
 
-        return intArray;
+    @Override
+    public String getName() {
+        return "TokenRing";
+    }
+
+    @Override
+    public Object getDevice() {
+        return tokenRing;
     }
 
 
 }
 class EthernetToComAdapter implements CommunicationCard{ //Adapter for Ethernet
-    private ConcreteEthernet ethernet;
+    private Ethernet ethernet;
 
-    EthernetToComAdapter(ConcreteEthernet ethernet){
+    EthernetToComAdapter(Ethernet ethernet){
         this.ethernet = ethernet;
     }
     @Override
     public byte[] getCom(int size) {
-        Byte[] data = ethernet.read(size);
-        byte[] bytes = new byte[data.length];
-        for(int i = 0; i < data.length; i++){
-            if (data[i] != null){ //data may be null because the type is Byte, not byte
-                bytes[i] = data[i];
-            }
-            else {
-                bytes[i] = 0;
-            }
-
-        }
+        byte[] bytes = new byte[size]; //bytes the card doesn't have stay 0
+        ethernet.read(bytes, 0, size);
         return bytes;
 
     }
 
     @Override
     public int setCom(byte[] data) {
-        Byte[] bytes = new Byte[data.length];
-        for(int i = 0; i < data.length; i++){
-            bytes[i] = data[i];
+        return ethernet.write(data, 0, data.length);
+    }
+
+    @Override
+    public int getCom(byte[] dst, int offset, int length) {
+        int read = ethernet.read(dst, offset, length);
+        Arrays.fill(dst, offset + read, offset + length, (byte) 0); //bytes the card doesn't have are 0
+        return length;
+    }
+
+    @Override
+    public int getCom(ByteBuffer dst) {
+        int length = dst.remaining();
+        ethernet.read(dst);
+        while(dst.hasRemaining()){ //bytes the card doesn't have are 0
+            dst.put((byte) 0);
         }
-        return ethernet.write(bytes);
+        return length;
+    }
+
+    @Override
+    public int setCom(ByteBuffer src) {
+        return ethernet.write(src);
     }
 
     @Override
     public String getName() {
         return "Ethernet";
     }
+
+    @Override
+    public Object getDevice() {
+        return ethernet;
+    }
 }
 
 interface Memory{ //interface for memory related classes(there is only one class in this case which is Ram, but it can be extended), also target in adapter pattern, receiver in command pattern
     byte[] getMem(int addr, int size);
     int setMem(byte[] data, int addr);
+
+    /* zero-copy overloads, see Ram */
+    int getMem(int addr, byte[] dst, int offset, int length);
+    int setMem(byte[] src, int offset, int length, int addr);
+    int getMem(int addr, ByteBuffer dst);
+    int setMem(ByteBuffer src, int addr);
+    ByteBuffer viewMem(int addr, int size);
+
+    /* see Ram.writableSlice, memories that can't hand out a view leave the caller to copy */
+    default ByteBuffer viewMemWritable(int addr, int size){
+        return null;
+    }
+    default void commitMem(int addr, int size){
+    }
+
+    default Object getDevice(){ //the device behind the memory, two adapters over one Ram share it
+        return this;
+    }
 }
 
 class RamToMemAdapter implements Memory{ //Adapter for Ram, ConcreteReceiver in command pattern
@@ -180,12 +724,80 @@ class RamToMemAdapter implements Memory{ //Adapter for Ram, ConcreteReceiver in
     public int setMem(byte[] data, int addr) {
         return ram.set(data, addr);
     }
+
+    @Override
+    public int getMem(int addr, byte[] dst, int offset, int length) {
+        return ram.get(addr, dst, offset, length);
+    }
+
+    @Override
+    public int setMem(byte[] src, int offset, int length, int addr) {
+        return ram.set(src, offset, length, addr);
+    }
+
+    @Override
+    public int getMem(int addr, ByteBuffer dst) {
+        return ram.get(addr, dst);
+    }
+
+    @Override
+    public int setMem(ByteBuffer src, int addr) {
+        return ram.set(src, addr);
+    }
+
+    @Override
+    public ByteBuffer viewMem(int addr, int size) {
+        return ram.slice(addr, size);
+    }
+
+    @Override
+    public ByteBuffer viewMemWritable(int addr, int size) {
+        return ram.writableSlice(addr, size);
+    }
+
+    @Override
+    public void commitMem(int addr, int size) {
+        ram.commit(addr, size);
+    }
+
+    @Override
+    public Object getDevice() {
+        return ram;
+    }
 }
 
 
 interface Ethernet{ //adaptee
     Byte[] read(int size);
     Integer write(Byte[] data);
+
+    /* primitive bulk path, no Byte boxing */
+    int read(byte[] dst, int offset, int length); //returns the number of bytes read
+    int write(byte[] src, int offset, int length);
+
+    default int read(ByteBuffer dst){ //reads up to dst.remaining() bytes, returns the number read
+        if(dst.hasArray()){
+            int read = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            dst.position(dst.position() + read);
+            return read;
+        }
+        byte[] data = new byte[dst.remaining()];
+        int read = read(data, 0, data.length);
+        dst.put(data, 0, read);
+        return read;
+    }
+    default int write(ByteBuffer src){ //writes src.remaining() bytes
+        if(src.hasArray()){
+            int result = write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            if(result >= 0){
+                src.position(src.limit());
+            }
+            return result;
+        }
+        byte[] data = new byte[src.remaining()];
+        src.get(data);
+        return write(data, 0, data.length);
+    }
 }
 class ConcreteEthernet implements Ethernet{ //Adapter for Ram, ConcreteReceiver in command pattern
     private Byte[] data;
@@ -207,6 +819,15 @@ class ConcreteEthernet implements Ethernet{ //Adapter for Ram, ConcreteReceiver
 
     }
 
+    @Override
+    public int read(byte[] dst, int offset, int length){
+        for(int i = 0; i < length; i++){
+            Byte value = this.data[i];
+            dst[offset + i] = value != null ? value : 0; //data may be null because the type is Byte, not byte
+        }
+        return length;
+    }
+
     @Override
     public String toString() {
         return "Ethernet{" +
@@ -228,12 +849,126 @@ class ConcreteEthernet implements Ethernet{ //Adapter for Ram, ConcreteReceiver
 
     }
 
+    @Override
+    public int write(byte[] src, int offset, int length){
+        if(length > this.data.length){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        for(int i = 0; i < length; i++){
+            this.data[i] = src[offset + i]; //Byte.valueOf is cached, so this doesn't allocate
+        }
+        return 0;
+    }
+
+}
+class RingBufferEthernet implements Ethernet{ //Adaptee, primitive ring buffer so consecutive frames queue up instead of overwriting each other
+    private final byte[] data;
+    private long readCursor; //total bytes read so far
+    private long writeCursor; //total bytes written so far
+
+    public RingBufferEthernet() {
+        this(1024); //1 KB
+    }
+    public RingBufferEthernet(int size){
+        data = new byte[size];
+    }
+
+    public int available(){
+        return (int) (writeCursor - readCursor);
+    }
+
+    @Override
+    public Byte[] read(int size){ //unread positions are null, same as ConcreteEthernet
+        byte[] bytes = new byte[size];
+        int read = read(bytes, 0, size);
+        Byte[] boxed = new Byte[size];
+        for(int i = 0; i < read; i++){
+            boxed[i] = bytes[i];
+        }
+        return boxed;
+    }
+
+    @Override
+    public Integer write(Byte[] data){
+        byte[] bytes = new byte[data.length];
+        for(int i = 0; i < data.length; i++){
+            bytes[i] = data[i] != null ? data[i] : 0;
+        }
+        return write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public int read(byte[] dst, int offset, int length){
+        int count = Math.min(length, available());
+        int start = (int) (readCursor % data.length);
+        int first = Math.min(count, data.length - start); //up to the end of the array, the rest wraps around
+        System.arraycopy(data, start, dst, offset, first);
+        System.arraycopy(data, 0, dst, offset + first, count - first);
+        readCursor += count;
+        return count;
+    }
+
+    @Override
+    public int write(byte[] src, int offset, int length){
+        if(length > data.length - available()){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        int start = (int) (writeCursor % data.length);
+        int first = Math.min(length, data.length - start);
+        System.arraycopy(src, offset, data, start, first);
+        System.arraycopy(src, offset + first, data, 0, length - first);
+        writeCursor += length;
+        return 0;
+    }
+
+    @Override
+    public int read(ByteBuffer dst){ //straight from the ring into dst, also for direct and read-only-backed buffers
+        int count = Math.min(dst.remaining(), available());
+        int start = (int) (readCursor % data.length);
+        int first = Math.min(count, data.length - start);
+        dst.put(data, start, first);
+        dst.put(data, 0, count - first);
+        readCursor += count;
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src){
+        int length = src.remaining();
+        if(length > data.length - available()){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        int start = (int) (writeCursor % data.length);
+        int first = Math.min(length, data.length - start);
+        src.get(data, start, first);
+        src.get(data, 0, length - first);
+        writeCursor += length;
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Ethernet{" +
+                "data=" + Arrays.toString(data) +
+                ", readCursor=" + readCursor +
+                ", writeCursor=" + writeCursor +
+                '}';
+    }
 }
 interface TokenRing{ //adaptee
     int[] receive(int size);
     int send(int[] data, int size);
+
+    /* ByteBuffer path, ints are big endian and a partial last int holds its bytes at the high end, padded with zeros */
+    int receive(ByteBuffer dst); //fills dst.remaining() bytes
+    int send(ByteBuffer src); //sends src.remaining() bytes
 }
 class ConcreteTokenRing implements TokenRing{ //Adaptee
+    private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN); //reads/writes an int straight out of a byte[]
+
     private int[] data;
 
     public ConcreteTokenRing() {
@@ -264,6 +999,69 @@ class ConcreteTokenRing implements TokenRing{ //Adaptee
 
     }
 
+    public int receive(ByteBuffer dst){
+        int length = dst.remaining();
+        if((length + 3) / 4 > data.length){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        int size = length / 4;
+        if(dst.hasArray()){
+            byte[] array = dst.array();
+            int base = dst.arrayOffset() + dst.position();
+            for(int i = 0; i < size; i++){
+                INT_VIEW.set(array, base + i * 4, data[i]);
+            }
+            dst.position(dst.position() + size * 4);
+        }
+        else {
+            ByteOrder order = dst.order();
+            dst.order(ByteOrder.BIG_ENDIAN);
+            for(int i = 0; i < size; i++){
+                dst.putInt(data[i]);
+            }
+            dst.order(order);
+        }
+        for(int shift = 24; dst.hasRemaining(); shift -= 8){ //a partial last int comes from its high end, like send puts it there
+            dst.put((byte) (data[size] >>> shift));
+        }
+        return 0;
+    }
+
+    public int send(ByteBuffer src){
+        int length = src.remaining();
+        int size = (length + 3) / 4;
+        if(size > data.length){
+            System.out.println("Error: Out of bounds");
+            return -1;
+        }
+        int whole = length / 4;
+        if(src.hasArray()){
+            byte[] array = src.array();
+            int base = src.arrayOffset() + src.position();
+            for(int i = 0; i < whole; i++){
+                data[i] = (int) INT_VIEW.get(array, base + i * 4);
+            }
+            src.position(src.position() + whole * 4);
+        }
+        else {
+            ByteOrder order = src.order();
+            src.order(ByteOrder.BIG_ENDIAN);
+            for(int i = 0; i < whole; i++){
+                data[i] = src.getInt();
+            }
+            src.order(order);
+        }
+        if(whole < size){ //leftover bytes go into the high end of the last int
+            int tail = 0;
+            for(int shift = 24; src.hasRemaining(); shift -= 8){
+                tail |= (src.get() & 0xFF) << shift;
+            }
+            data[whole] = tail;
+        }
+        return 0;
+    }
+
     @Override
     public String toString() {
         return "TokenRing{" +
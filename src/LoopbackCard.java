@@ -0,0 +1,425 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * CommunicationCard over a TCP connection to itself on localhost, so card tasks pay for real system calls.
+ * setCom queues a frame (4 byte length + payload) in direct buffers; once batchFrames frames are queued they go
+ * out in one gathering write. A selector thread takes incoming frames apart and appends their payloads to a ring
+ * that getCom reads from, like RingBufferEthernet. When the ring is full it stops reading and TCP flow control
+ * holds the sender back.
+ * Both ends are non-blocking: whatever part of a batch the socket doesn't take at once is finished by the selector
+ * thread, and setCom waits for that before it reuses the buffers, without holding the send lock. So nobody blocks
+ * on the socket while holding a lock, and getCom can always flush and read.
+ * getCom waits up to the receive timeout for the bytes it is asked for and returns -1 if they don't all arrive.
+ */
+class LoopbackCard implements CommunicationCard, AutoCloseable{ //Concrete Receiver
+    private static final int HEADER_SIZE = 4;
+
+    private final SocketChannel sender;
+    private final SocketChannel receiver;
+    private final Selector selector;
+    private final java.lang.Thread receiveLoop;
+    private final long receiveTimeoutNanos;
+
+    /* send side, guarded by sendLock */
+    private final ReentrantLock sendLock = new ReentrantLock();
+    private final Condition sent = sendLock.newCondition(); //the batch in flight is out
+    private final int batchFrames;
+    private final ByteBuffer headers; //one slot per queued frame
+    private final ByteBuffer payloads; //the queued payloads back to back
+    private final ByteBuffer[] gather; //header, payload, header, payload, ...
+    private int queuedFrames;
+    private boolean inFlight; //the queued frames are partly written, the selector thread writes the rest
+    private boolean sendFailed; //reported by the next setCom or flush
+    private long framesSent;
+    private long writeCalls;
+
+    /* receive side, the ring is guarded by lock */
+    private final ByteBuffer inbound; //filled by the channel, frames are taken out of it
+    private final byte[] ring;
+    private long readCursor;
+    private long writeCursor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private volatile boolean closed;
+
+    /* bufferSize bounds a single frame and the receive ring, batchFrames is how many frames share one write */
+    LoopbackCard(int bufferSize, int batchFrames, long receiveTimeout, TimeUnit unit) throws IOException {
+        this.batchFrames = batchFrames;
+        this.receiveTimeoutNanos = unit.toNanos(receiveTimeout);
+        this.headers = ByteBuffer.allocateDirect(batchFrames * HEADER_SIZE);
+        this.payloads = ByteBuffer.allocateDirect(bufferSize);
+        this.gather = new ByteBuffer[batchFrames * 2];
+        this.inbound = ByteBuffer.allocateDirect(bufferSize + HEADER_SIZE);
+        this.ring = new byte[bufferSize];
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            sender = SocketChannel.open(server.getLocalAddress());
+            receiver = server.accept();
+        }
+        sender.setOption(StandardSocketOptions.TCP_NODELAY, true); //batching is up to us, not Nagle
+        sender.configureBlocking(false);
+        receiver.configureBlocking(false);
+        selector = Selector.open();
+        receiver.register(selector, SelectionKey.OP_READ);
+        sender.register(selector, 0); //OP_WRITE only while a batch is in flight
+        receiveLoop = new java.lang.Thread(this::receiveLoop, "LoopbackCard receiver");
+        receiveLoop.setDaemon(true);
+        receiveLoop.start();
+    }
+
+    @Override
+    public byte[] getCom(int size) {
+        byte[] data = new byte[size];
+        return getCom(data, 0, size) < 0 ? null : data;
+    }
+
+    @Override
+    public int setCom(byte[] data) {
+        return setCom(ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public int setCom(ByteBuffer src) { //queues the frame, it is sent once the batch is full or on flush()
+        sendLock.lock();
+        try {
+            int length = src.remaining();
+            if(length > payloads.capacity()){
+                System.out.println("Error: Out of bounds");
+                return -1;
+            }
+            while(inFlight || length > payloads.remaining()){
+                if(!inFlight && flushLocked() < 0){
+                    return -1;
+                }
+                if(awaitSent() < 0){
+                    return -1;
+                }
+            }
+            ByteBuffer header = headers.duplicate();
+            header.position(queuedFrames * HEADER_SIZE).limit((queuedFrames + 1) * HEADER_SIZE);
+            header = header.slice();
+            header.putInt(0, length);
+            ByteBuffer payload = payloads.slice();
+            payload.limit(length);
+            payload.put(src).flip();
+            payloads.position(payloads.position() + length);
+            gather[queuedFrames * 2] = header;
+            gather[queuedFrames * 2 + 1] = payload;
+            queuedFrames++;
+            return queuedFrames == batchFrames ? flushLocked() : 0;
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    /* starts sending the queued frames now, never waits for the socket */
+    public int flush() {
+        sendLock.lock();
+        try {
+            return flushLocked();
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    private int flushLocked() {
+        if(sendFailed){
+            sendFailed = false;
+            return -1;
+        }
+        if(queuedFrames == 0 || inFlight){
+            return 0;
+        }
+        try {
+            if(!writeQueued()){ //the socket is full, the selector thread goes on once it has room
+                inFlight = true;
+                sender.keyFor(selector).interestOps(SelectionKey.OP_WRITE);
+                selector.wakeup();
+            }
+            return 0;
+        }
+        catch (IOException e) {
+            System.out.println("Error: LoopbackCard could not send: " + e.getMessage());
+            clearQueued();
+            return -1;
+        }
+    }
+
+    /* writes as much of the queued frames as the socket takes, true once all of them are out */
+    private boolean writeQueued() throws IOException {
+        int count = queuedFrames * 2;
+        long written;
+        do { //a gathering write may stop short, the buffers remember how far it got
+            written = sender.write(gather, 0, count);
+            writeCalls++;
+        } while(written > 0 && gather[count - 1].hasRemaining());
+        if(gather[count - 1].hasRemaining()){
+            return false;
+        }
+        framesSent += queuedFrames;
+        clearQueued();
+        return true;
+    }
+
+    private void clearQueued() {
+        Arrays.fill(gather, 0, queuedFrames * 2, null);
+        queuedFrames = 0;
+        payloads.clear();
+    }
+
+    /* waits until the selector thread has sent the batch in flight; await lets go of sendLock meanwhile */
+    private int awaitSent() {
+        try {
+            while(inFlight && !closed){
+                sent.await();
+            }
+        }
+        catch (InterruptedException e) {
+            java.lang.Thread.currentThread().interrupt();
+            return -1;
+        }
+        if(inFlight){
+            System.out.println("Error: LoopbackCard is closed");
+            return -1;
+        }
+        if(sendFailed){
+            sendFailed = false;
+            return -1;
+        }
+        return 0;
+    }
+
+    /* selector thread: goes on with the batch in flight */
+    private void sendPending() {
+        sendLock.lock();
+        try {
+            if(!inFlight){
+                return;
+            }
+            try {
+                if(!writeQueued()){
+                    return;
+                }
+            }
+            catch (IOException e) {
+                System.out.println("Error: LoopbackCard could not send: " + e.getMessage());
+                sendFailed = true;
+                clearQueued();
+            }
+            inFlight = false;
+            sender.keyFor(selector).interestOps(0);
+            sent.signalAll();
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    @Override
+    public int getCom(byte[] dst, int offset, int length) {
+        flush(); //frames this card is still holding would never arrive; only starts the write, so it never waits
+        lock.lock();
+        try {
+            long deadline = System.nanoTime() + receiveTimeoutNanos;
+            int done = 0;
+            while(done < length){
+                int count = (int) Math.min(length - done, writeCursor - readCursor);
+                if(count == 0){
+                    long left = deadline - System.nanoTime();
+                    if(left <= 0 || closed){
+                        break;
+                    }
+                    readable.awaitNanos(left);
+                    continue;
+                }
+                int start = (int) (readCursor % ring.length);
+                int first = Math.min(count, ring.length - start);
+                System.arraycopy(ring, start, dst, offset + done, first);
+                System.arraycopy(ring, 0, dst, offset + done + first, count - first);
+                readCursor += count;
+                done += count;
+                selector.wakeup(); //the receiver may be waiting for room
+            }
+            if(done < length){
+                System.out.println("Error: LoopbackCard received " + done + " of " + length + " bytes");
+                return -1;
+            }
+            return length;
+        }
+        catch (InterruptedException e) {
+            java.lang.Thread.currentThread().interrupt();
+            return -1;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void receiveLoop() {
+        try {
+            SelectionKey key = receiver.keyFor(selector);
+            while(!closed){
+                selector.select();
+                selector.selectedKeys().clear();
+                if(closed){
+                    break;
+                }
+                sendPending();
+                if(receiver.read(inbound) < 0){
+                    break;
+                }
+                inbound.flip();
+                boolean room = deliverFrames();
+                inbound.compact();
+                key.interestOps(room ? SelectionKey.OP_READ : 0); //no room: leave the data in the socket until getCom frees some
+            }
+        }
+        catch (IOException e) {
+            if(!closed){
+                System.out.println("Error: LoopbackCard could not receive: " + e.getMessage());
+            }
+        }
+        finally {
+            lock.lock();
+            try {
+                closed = true;
+                readable.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+            sendLock.lock();
+            try {
+                sent.signalAll(); //nobody finishes a batch in flight any more
+            }
+            finally {
+                sendLock.unlock();
+            }
+        }
+    }
+
+    /* moves every complete frame that fits into the ring, false if the next one doesn't fit yet */
+    private boolean deliverFrames() {
+        lock.lock();
+        try {
+            boolean delivered = false;
+            boolean room = true;
+            while(inbound.remaining() >= HEADER_SIZE){
+                int length = inbound.getInt(inbound.position());
+                if(inbound.remaining() < HEADER_SIZE + length){
+                    break; //the rest of the frame is still on its way
+                }
+                if(length > ring.length - (writeCursor - readCursor)){
+                    room = false;
+                    break;
+                }
+                inbound.position(inbound.position() + HEADER_SIZE);
+                int start = (int) (writeCursor % ring.length);
+                int first = Math.min(length, ring.length - start);
+                inbound.get(ring, start, first);
+                inbound.get(ring, 0, length - first);
+                writeCursor += length;
+                delivered = true;
+            }
+            if(delivered){
+                readable.signalAll();
+            }
+            return room;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int available() {
+        lock.lock();
+        try {
+            return (int) (writeCursor - readCursor);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getFramesSent() {
+        sendLock.lock();
+        try {
+            return framesSent;
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    public long getWriteCalls() { //frames per write call is what batching buys
+        sendLock.lock();
+        try {
+            return writeCalls;
+        }
+        finally {
+            sendLock.unlock();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "Loopback";
+    }
+
+    @Override
+    public void close() throws IOException {
+        sendLock.lock();
+        try { //the queued frames still go out, as long as the receiver makes room within the receive timeout
+            long deadline = System.nanoTime() + receiveTimeoutNanos;
+            flushLocked();
+            while(inFlight && !closed){
+                long left = deadline - System.nanoTime();
+                if(left <= 0){
+                    System.out.println("Error: LoopbackCard closed with frames unsent");
+                    break;
+                }
+                sent.awaitNanos(left);
+            }
+        }
+        catch (InterruptedException e) {
+            java.lang.Thread.currentThread().interrupt();
+        }
+        finally {
+            sendLock.unlock();
+        }
+        closed = true;
+        selector.wakeup();
+        try {
+            receiveLoop.join();
+        }
+        catch (InterruptedException e) {
+            java.lang.Thread.currentThread().interrupt();
+        }
+        sender.close();
+        receiver.close();
+        selector.close();
+    }
+
+    @Override
+    public String toString() {
+        return "LoopbackCard{" +
+                "framesSent=" + getFramesSent() +
+                ", writeCalls=" + getWriteCalls() +
+                ", available=" + available() +
+                '}';
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*
+ * Checkpoint file: two 32 byte header slots, the page images in address order, then a page journal.
+ * A header (magic, page size, Ram size, generation, journal pages, crc) goes into slot generation % 2, so a torn
+ * header write leaves the previous one intact; restore uses the valid header with the highest generation.
+ * The first checkpoint of a RamCheckpointer writes every page into a new file that replaces the old one only once
+ * it is complete and on disk. Later checkpoints write only the pages written since: they go to the journal first,
+ * a header naming the journal commits them, and only then are they copied over the image. A crash before that
+ * header keeps the old checkpoint, a crash after it is repaired by replaying the journal. If an incremental
+ * checkpoint fails, the next one writes every page again, so no page whose dirty bit was cleared is lost.
+ * Pages are copied through ConcreteRam.copyPage, which ConcurrentRam does under the page's read lock; a page written
+ * while the checkpoint runs stays dirty and goes into the next one.
+ */
+class RamCheckpointer implements AutoCloseable{
+    private static final int MAGIC = 0x52414D32; //"RAM2"
+    private static final int SLOT_SIZE = 32;
+    private static final int HEADER_SIZE = 2 * SLOT_SIZE;
+    private static final int ENTRY_SIZE = 4 + ConcreteRam.PAGE_SIZE; //page number + page image
+    private static final int RUN_PAGES = 64; //consecutive pages or journal entries go out in one write
+
+    private final ConcreteRam ram;
+    private final Path file;
+    private final ByteBuffer run = ByteBuffer.allocateDirect(RUN_PAGES * ENTRY_SIZE);
+    private FileChannel channel;
+    private boolean complete; //the file holds a full image from this Ram, only dirty pages need writing
+    private long generation;
+    private ScheduledExecutorService scheduler;
+
+    RamCheckpointer(ConcreteRam ram, Path file){
+        this.ram = ram;
+        this.file = file;
+    }
+
+    /* returns the number of pages written */
+    public synchronized int checkpoint() throws IOException {
+        if(!complete){
+            return writeAll();
+        }
+        if(channel == null){ //closed, the file still holds this Ram's image
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        boolean done = false;
+        try {
+            int written = writeDirty();
+            done = true;
+            return written;
+        }
+        finally {
+            if(!done){ //the journal may or may not be committed, only a full image is safe to write next
+                complete = false;
+            }
+        }
+    }
+
+    private int writeAll() throws IOException {
+        if(channel != null){
+            channel.close();
+            channel = null;
+        }
+        Path fresh = file.resolveSibling(file.getFileName() + ".tmp"); //the old checkpoint stays until the new one is on disk
+        try {
+            channel = FileChannel.open(fresh, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            int runStart = 0;
+            run.clear();
+            for(int page = 0; page < ram.pageCount(); page++){
+                ram.clearDirty(page); //always clear, this pass covers the page anyway
+                if(run.remaining() < ConcreteRam.PAGE_SIZE){
+                    writeRun(runStart);
+                    runStart = page;
+                }
+                ram.copyPage(page, run);
+            }
+            writeRun(runStart);
+            channel.force(false); //the header only goes in once the pages are on disk
+            generation = 1;
+            writeHeader(0);
+            channel.close();
+            channel = null;
+            Files.move(fresh, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException | RuntimeException e) { //complete stays false, so the next checkpoint writes every page again
+            if(channel != null){
+                channel.close();
+                channel = null;
+            }
+            Files.deleteIfExists(fresh);
+            throw e;
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        complete = true;
+        return ram.pageCount();
+    }
+
+    private int writeDirty() throws IOException {
+        long position = imageEnd();
+        int written = 0;
+        run.clear();
+        for(int page = 0; page < ram.pageCount(); page++){
+            if(!ram.clearDirty(page)){
+                continue;
+            }
+            if(run.remaining() < ENTRY_SIZE){
+                position += flushRun(position);
+            }
+            int entry = run.position();
+            run.putInt(page);
+            ram.copyPage(page, run);
+            run.position(entry + ENTRY_SIZE); //the last page may be short
+            written++;
+        }
+        if(written == 0){
+            return 0;
+        }
+        flushRun(position);
+        channel.force(false);
+        generation++;
+        writeHeader(written); //commit point: from here on restore replays the journal
+        applyJournal(channel, written, page -> {
+            run.limit(run.position() + pageLength(ram.size(), page));
+            writeFully(run, HEADER_SIZE + ((long) page << ConcreteRam.PAGE_SHIFT));
+        });
+        channel.force(false);
+        generation++;
+        writeHeader(0); //the image is whole again, the next journal may overwrite this one
+        return written;
+    }
+
+    /* checkpoints every period on a daemon thread until close() */
+    public synchronized void start(long period, TimeUnit unit) {
+        if(scheduler != null){
+            System.out.println("Error: RamCheckpointer already started");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            java.lang.Thread thread = new java.lang.Thread(runnable, "RamCheckpointer " + file.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            }
+            catch (IOException e) {
+                System.out.println("Error: Checkpoint of " + file + " failed: " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    /* stops the background checkpoints and writes a final one */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = scheduler;
+            scheduler = null;
+        }
+        if(stopping != null){
+            stopping.shutdown();
+            try {
+                stopping.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e) {
+                java.lang.Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                checkpoint();
+            }
+            finally {
+                if(channel != null){
+                    channel.close();
+                    channel = null;
+                }
+            }
+        }
+    }
+
+    /* reads a checkpoint back and replays a committed journal; the new Ram starts with no dirty pages */
+    public static ConcreteRam restore(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_SIZE){
+                throw new IOException(file + " is not a complete Ram checkpoint");
+            }
+            ByteBuffer headers = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, headers, 0);
+            ByteBuffer header = null;
+            for(int slot = 0; slot < 2; slot++){
+                ByteBuffer candidate = validHeader(headers, slot * SLOT_SIZE);
+                if(candidate != null && (header == null || candidate.getLong(16) > header.getLong(16))){
+                    header = candidate;
+                }
+            }
+            if(header == null){
+                throw new IOException(file + " is not a complete Ram checkpoint");
+            }
+            long size = header.getLong(8);
+            int journalPages = header.getInt(24);
+            if(size > Integer.MAX_VALUE || channel.size() < HEADER_SIZE + size + (long) journalPages * ENTRY_SIZE){
+                throw new IOException(file + " is not a complete Ram checkpoint");
+            }
+            ConcreteRam ram = new ConcreteRam((int) size);
+            ram.load(channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, size));
+            ByteBuffer run = ByteBuffer.allocateDirect(RUN_PAGES * ENTRY_SIZE);
+            applyJournal(channel, run, (int) size, journalPages, page -> {
+                if(page < 0 || page >= ram.pageCount()){
+                    throw new IOException(file + " has a corrupt journal");
+                }
+                run.limit(run.position() + pageLength(ram.size(), page));
+                ram.loadPage(page, run);
+            });
+            return ram;
+        }
+    }
+
+    private interface JournalEntry{ //the page image is run's remaining bytes, up to the entry's end
+        void apply(int page) throws IOException;
+    }
+
+    private void applyJournal(FileChannel channel, int pages, JournalEntry entry) throws IOException {
+        applyJournal(channel, run, ram.size(), pages, entry);
+    }
+
+    /* reads the journal back in runs and hands each entry to entry.apply with run positioned at the page image */
+    private static void applyJournal(FileChannel channel, ByteBuffer run, int size, int pages, JournalEntry entry) throws IOException {
+        long position = HEADER_SIZE + (long) size;
+        for(int done = 0; done < pages; ){
+            int count = Math.min(pages - done, RUN_PAGES);
+            run.clear().limit(count * ENTRY_SIZE);
+            readFully(channel, run, position);
+            for(int i = 0; i < count; i++){
+                run.limit((i + 1) * ENTRY_SIZE).position(i * ENTRY_SIZE);
+                int page = run.getInt();
+                entry.apply(page);
+            }
+            position += count * ENTRY_SIZE;
+            done += count;
+        }
+    }
+
+    private static ByteBuffer validHeader(ByteBuffer headers, int offset) {
+        ByteBuffer header = headers.duplicate();
+        header.position(offset).limit(offset + SLOT_SIZE);
+        header = header.slice();
+        CRC32 crc = new CRC32();
+        crc.update(header.duplicate().limit(SLOT_SIZE - 4));
+        if(header.getInt(0) != MAGIC || header.getInt(4) != ConcreteRam.PAGE_SIZE || header.getInt(28) != (int) crc.getValue()){
+            return null;
+        }
+        return header;
+    }
+
+    private void writeHeader(int journalPages) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SLOT_SIZE);
+        header.putInt(MAGIC).putInt(ConcreteRam.PAGE_SIZE).putLong(ram.size()).putLong(generation).putInt(journalPages);
+        CRC32 crc = new CRC32();
+        crc.update(header.duplicate().flip());
+        header.putInt((int) crc.getValue()).flip();
+        writeFully(header, (generation & 1) * SLOT_SIZE);
+        channel.force(false);
+    }
+
+    private static int pageLength(int size, int page) {
+        return Math.min(ConcreteRam.PAGE_SIZE, size - (page << ConcreteRam.PAGE_SHIFT));
+    }
+
+    private long imageEnd() {
+        return HEADER_SIZE + (long) ram.size();
+    }
+
+    private void writeRun(int firstPage) throws IOException {
+        run.flip();
+        writeFully(run, HEADER_SIZE + ((long) firstPage << ConcreteRam.PAGE_SHIFT));
+        run.clear();
+    }
+
+    private int flushRun(long position) throws IOException { //returns the bytes written
+        run.flip();
+        int length = run.remaining();
+        writeFully(run, position);
+        run.clear();
+        return length;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while(dst.hasRemaining()){
+            int read = channel.read(dst, position);
+            if(read < 0){
+                throw new IOException("Ram checkpoint is truncated");
+            }
+            position += read;
+        }
+    }
+
+    private void writeFully(ByteBuffer src, long position) throws IOException {
+        while(src.hasRemaining()){
+            position += channel.write(src, position);
+        }
+    }
+}
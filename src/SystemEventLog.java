@@ -1,16 +1,102 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 interface Observer { //Abstract Observer
     void update(String message);
+
+    default void update(SystemEvent event){ //structured push, observers that only want text get the formatted message
+        update(event.getMessage()); //the subject reuses event after this returns, copy it to keep it
+    }
 }
 interface Subject { //Abstract Subject
     void attach(Observer observer);
     void detach(Observer observer);
     void notifyObservers(String message);
+    void notifyObservers(SystemEvent event);
+}
+
+enum OverflowPolicy{ //what a bounded buffer does when it is full
+    BLOCK, //the producer waits for room
+    DROP, //the new entry is dropped and counted
+    DROP_OLDEST //the oldest waiting entry is dropped and counted to make room
 }
+
+class SystemEvent{ //structured log entry, mutable so buffers can preallocate and reuse them
+    private String threadName;
+    private String taskName;
+    private String message; //null for task events, the text is built on demand
+    private long timestamp; //System.currentTimeMillis()
+
+    SystemEvent() {
+    }
+
+    SystemEvent(String threadName, String taskName, long timestamp) {
+        set(threadName, taskName, null, timestamp);
+    }
+
+    void set(String threadName, String taskName, String message, long timestamp) {
+        this.threadName = threadName;
+        this.taskName = taskName;
+        this.message = message;
+        this.timestamp = timestamp;
+    }
+
+    void copyFrom(SystemEvent event) {
+        set(event.threadName, event.taskName, event.message, event.timestamp);
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getMessage() {
+        return message != null ? message : threadName + " has finished the task: " + taskName;
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + "\t" + threadName + "\t" + taskName + "\t" + getMessage();
+    }
+}
+
 public class SystemEventLog implements Observer{ //Concrete Observer and Singleton
-    private String log;
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int WRITE_BATCH = 256;
     private static SystemEventLog instance;
 
-    public static SystemEventLog getInstance(){
+    /* events live in a preallocated ring. [head, tail) are waiting for the writer, the slots before head
+       are already written but stay readable through getLog() until they are reused. Without an output
+       file nothing waits and the oldest events are simply overwritten. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    private SystemEvent[] events;
+    private long head;
+    private long tail;
+    private long writtenCount; //events the writer has handed to the file
+    private long droppedCount;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    private BufferedWriter output;
+    private java.lang.Thread writer;
+    private boolean closing;
+
+    public static synchronized SystemEventLog getInstance(){
         if(instance == null){
             instance = new SystemEventLog();
         }
@@ -23,23 +109,412 @@ public class SystemEventLog implements Observer{ //Concrete Observer and Singlet
 
 
     private SystemEventLog() {
-        log = "";
+        events = newRing(DEFAULT_CAPACITY);
+    }
+
+    private static SystemEvent[] newRing(int capacity) {
+        SystemEvent[] events = new SystemEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new SystemEvent();
+        }
+        return events;
     }
 
-    public String getLog() {
-        return log;
+    /* resizes the ring, events recorded so far are discarded */
+    public void configure(int capacity, OverflowPolicy overflowPolicy) {
+        lock.lock();
+        try {
+            if (tail != head) {
+                System.out.println("Error: SystemEventLog can't be reconfigured while events are waiting to be written");
+                return;
+            }
+            events = newRing(capacity);
+            head = tail = writtenCount = 0;
+            this.overflowPolicy = overflowPolicy;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /* appends every event to file from now on, on a background writer thread */
+    public void setOutput(Path file) throws IOException {
+        lock.lock();
+        try {
+            if (output != null) {
+                System.out.println("Error: SystemEventLog already writes to a file");
+                return;
+            }
+            output = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            head = tail; //only events from now on go to the file
+            writtenCount = tail;
+            closing = false;
+            writer = new java.lang.Thread(this::writeLoop, "SystemEventLog writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public String getLog() { //the events still held in the ring, one message per line
+        lock.lock();
+        try {
+            StringBuilder log = new StringBuilder();
+            for (long i = Math.max(0, tail - events.length); i < tail; i++) {
+                log.append(events[(int) (i % events.length)].getMessage()).append('\n');
+            }
+            return log.toString();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public void update(String message){
-        log += message + "\n";
+        record(null, message);
+    }
+
+    @Override
+    public void update(SystemEvent event){
+        record(event, null);
+    }
+
+    private void record(SystemEvent event, String message) { //exactly one of them is set
+        lock.lock();
+        try {
+            if (output != null) {
+                while (tail - head == events.length) { //the writer is behind
+                    if (overflowPolicy == OverflowPolicy.DROP) {
+                        droppedCount++;
+                        return;
+                    }
+                    if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                        head++;
+                        writtenCount++; //skipped, flush() mustn't wait for it
+                        droppedCount++;
+                        break;
+                    }
+                    notFull.awaitUninterruptibly();
+                }
+            }
+            SystemEvent slot = events[(int) (tail % events.length)];
+            if (event != null) {
+                slot.copyFrom(event);
+            }
+            else {
+                slot.set(java.lang.Thread.currentThread().getName(), null, message, System.currentTimeMillis());
+            }
+            tail++;
+            if (output == null) {
+                head = tail;
+            }
+            else if (tail - head == 1) {
+                notEmpty.signal();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        SystemEvent[] batch = newRing(WRITE_BATCH); //copies, so producers can reuse the slots while we write
+        while (true) {
+            int count;
+            lock.lock();
+            try {
+                while (head == tail && !closing) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (head == tail) {
+                    break;
+                }
+                count = (int) Math.min(tail - head, WRITE_BATCH);
+                for (int i = 0; i < count; i++) {
+                    batch[i].copyFrom(events[(int) ((head + i) % events.length)]);
+                }
+                head += count;
+                notFull.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+            try {
+                for (int i = 0; i < count; i++) {
+                    output.write(batch[i].toString());
+                    output.newLine();
+                }
+                output.flush();
+            }
+            catch (IOException e) {
+                System.out.println("Error: SystemEventLog could not write: " + e.getMessage());
+            }
+            lock.lock();
+            try {
+                writtenCount += count;
+                written.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /* waits until everything recorded so far is in the file */
+    public void flush() throws InterruptedException {
+        lock.lock();
+        try {
+            long target = tail;
+            while (output != null && writtenCount < target) {
+                written.await();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /* writes what is left and stops the writer */
+    public void close() throws InterruptedException, IOException {
+        java.lang.Thread stopping;
+        lock.lock();
+        try {
+            if (output == null) {
+                return;
+            }
+            closing = true;
+            notEmpty.signal();
+            stopping = writer;
+        }
+        finally {
+            lock.unlock();
+        }
+        stopping.join();
+        lock.lock();
+        try {
+            output.close();
+            output = null;
+            writer = null;
+            head = tail;
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public String toString() {
         return "SystemEventLog{\n" +
-                "log='\n" + log + '\'' +
+                "log='\n" + getLog() + '\'' +
                 '}';
     }
 }
 
+class AsyncObserver implements Observer{ //Decorator, hands events to the wrapped observer on its own thread so a slow observer doesn't stall the subject
+    private final Observer observer;
+    private final OverflowPolicy overflowPolicy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    private final SystemEvent[] events; //preallocated, the subject may reuse its event once update returns
+    private final long[] publishedAt; //System.nanoTime() of each waiting event, for the lag
+    private long head;
+    private long tail;
+    private long droppedCount;
+    private long deliveredCount;
+    private long takenCount;
+    private long totalLagNanos;
+    private long maxLagNanos;
+    private boolean closing;
+    private final java.lang.Thread consumer;
+
+    public AsyncObserver(Observer observer, int capacity, OverflowPolicy overflowPolicy) {
+        this.observer = observer;
+        this.overflowPolicy = overflowPolicy;
+        this.events = new SystemEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            events[i] = new SystemEvent();
+        }
+        this.publishedAt = new long[capacity];
+        consumer = new java.lang.Thread(this::consumeLoop, "AsyncObserver " + observer.getClass().getName());
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @Override
+    public void update(String message) {
+        publish(null, message);
+    }
+
+    @Override
+    public void update(SystemEvent event) {
+        publish(event, null);
+    }
+
+    private void publish(SystemEvent event, String message) { //exactly one of them is set
+        lock.lock();
+        try {
+            if (closing) {
+                droppedCount++;
+                return;
+            }
+            while (tail - head == events.length) {
+                if (overflowPolicy == OverflowPolicy.DROP) {
+                    droppedCount++;
+                    return;
+                }
+                if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    head++;
+                    droppedCount++;
+                    break;
+                }
+                notFull.awaitUninterruptibly();
+            }
+            int index = (int) (tail % events.length);
+            if (event != null) {
+                events[index].copyFrom(event);
+            }
+            else {
+                events[index].set(java.lang.Thread.currentThread().getName(), null, message, System.currentTimeMillis());
+            }
+            publishedAt[index] = System.nanoTime();
+            tail++;
+            if (tail - head == 1) {
+                notEmpty.signal();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void consumeLoop() {
+        SystemEvent event = new SystemEvent();
+        while (true) {
+            lock.lock();
+            try {
+                while (head == tail && !closing) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (head == tail) {
+                    return;
+                }
+                int index = (int) (head % events.length);
+                event.copyFrom(events[index]);
+                long lag = System.nanoTime() - publishedAt[index];
+                takenCount++;
+                totalLagNanos += lag;
+                maxLagNanos = Math.max(maxLagNanos, lag);
+                head++;
+                notFull.signal();
+            }
+            finally {
+                lock.unlock();
+            }
+            try {
+                observer.update(event);
+            }
+            catch (RuntimeException e) {
+                System.out.println("Error: Observer failed: " + e);
+            }
+            lock.lock();
+            try {
+                deliveredCount++;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /* delivers what is already queued, then stops the consumer thread */
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            closing = true;
+            notEmpty.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+        consumer.join();
+    }
+
+    public Observer getObserver() {
+        return observer;
+    }
+
+    public int getQueueDepth() { //events published but not yet taken by the consumer
+        lock.lock();
+        try {
+            return (int) (tail - head);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDeliveredCount() {
+        lock.lock();
+        try {
+            return deliveredCount;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxLagNanos() { //longest time an event waited before the consumer took it
+        lock.lock();
+        try {
+            return maxLagNanos;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAverageLagNanos() {
+        lock.lock();
+        try {
+            return totalLagNanos / Math.max(1, takenCount);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncObserver{" +
+                "observer=" + observer.getClass().getName() +
+                ", queueDepth=" + getQueueDepth() +
+                ", delivered=" + getDeliveredCount() +
+                ", dropped=" + getDroppedCount() +
+                ", maxLagNanos=" + getMaxLagNanos() +
+                '}';
+    }
+}
@@ -1,37 +1,221 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 abstract class Task{ //Abstract Command, Component of Composite Pattern
     abstract void execute();
     abstract String getName();
     protected String name;
+
+    /* adds the TaskData and devices the task reads and writes, so a parallel composite knows which tasks may overlap.
+       Returns false if the task can't tell, it is then ordered against every other task. */
+    boolean collectAccesses(List<Object> reads, List<Object> writes){
+        return false;
+    }
+
+    int getResult(){ //what the task reports once executed, tasks without a result report 0
+        return 0;
+    }
+
+    TaskData getTaskData(){ //the data the task produces or consumes, if any
+        return null;
+    }
+}
+
+enum ExecutionMode{ //how a CompositeTask runs its children
+    SEQUENTIAL, //one after another, in order
+    PARALLEL, //independent children at the same time, on the fork/join pool
+    COALESCED, //in order, but runs of memory tasks on adjacent addresses become one bulk operation
+    COMPILED //in order, from an ExecutionPlan of the flattened tree that is kept until the tree changes
 }
 
 class TaskData{ //Mediator for data transfer between tasks(commands)
     private byte[] data;
+    private int length; //bytes of data that are the TaskData's, a pooled buffer can be longer
+    private final boolean pooled; //buffers come from BufferPool
+    private boolean fromPool; //the current buffer was taken from BufferPool, so recycle() may hand it back
 
+    /* the buffer, only its first getLength() bytes are data: buffers from BufferPool are rounded up to a power of two */
     public byte[] getData() {
         return data;
     }
 
+    public int getLength() {
+        return data == null ? 0 : length;
+    }
+
     public void setData(byte[] data) {
         this.data = data;
+        this.length = data == null ? 0 : data.length;
+        this.fromPool = false;
     }
 
     TaskData(byte[] data){
         this.data = data;
+        this.length = data == null ? 0 : data.length;
+        this.pooled = false;
+    }
+
+    private TaskData(int size){
+        this.data = BufferPool.getInstance().acquire(size);
+        this.length = size;
+        this.pooled = true;
+        this.fromPool = true;
+    }
+
+    static TaskData pooled(int size){
+        return new TaskData(size);
+    }
+
+    /* for the producer: the buffer to fill. The same buffer is filled again on every execution, it stays with the
+       TaskData, so getData() and a consumer that runs again see the last data just as with a plain array. */
+    byte[] acquire(int size){
+        byte[] data = this.data;
+        if(data == null || (fromPool ? data.length < size : data.length != size)){
+            data = pooled ? BufferPool.getInstance().acquire(size) : new byte[size];
+            this.data = data;
+            this.fromPool = pooled;
+        }
+        this.length = size;
+        return data;
+    }
+
+    /* for an owner that is done with the data for good, e.g. a pipeline built per request: the buffer goes back to
+       the pool for the next TaskData and getData() returns null from then on. */
+    public void recycle(){
+        byte[] data = this.data;
+        this.data = null;
+        this.length = 0;
+        if(fromPool){
+            fromPool = false;
+            BufferPool.getInstance().release(data);
+        }
+    }
+
+    void release(){ //for a CompositeTask whose own tasks produced and consumed the data: only a pool buffer goes back
+        if(fromPool){
+            recycle();
+        }
     }
 
     @Override
     public String toString() {
         return "TaskData{" +
-                "data=" + Arrays.toString(data) +
+                "data=" + Arrays.toString(data == null || data.length == length ? data : Arrays.copyOf(data, length)) +
                 '}';
     }
 }
 
+class BufferPool{ //Singleton, recycles transfer and TaskData buffers
+    private static final int MAX_POOLED_SIZE = 1 << 20; //bigger buffers are left to the GC
+    private static final int SIZE_CLASSES = 21; //1, 2, 4, ... MAX_POOLED_SIZE bytes
+    private static final int SHARED_PER_CLASS = 256;
+    private static final int LOCAL_PER_CLASS = 16;
+
+    /* one size class per power of two: acquire rounds the size up, so nearby sizes share buffers and a buffer can be
+       longer than asked for. Users keep track of the length they asked for. */
+    private final AtomicReferenceArray<MpmcRingBuffer<byte[]>> shared = new AtomicReferenceArray<>(SIZE_CLASSES); //created on first release
+    private final ThreadLocal<LocalCache> local = ThreadLocal.withInitial(LocalCache::new);
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+
+    private static class Holder {
+        private static final BufferPool INSTANCE = new BufferPool();
+    }
+
+    public static BufferPool getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private BufferPool() {
+    }
+
+    public byte[] acquire(int size) {
+        if (size <= 0 || size > MAX_POOLED_SIZE) {
+            allocated.increment();
+            return new byte[size];
+        }
+        int sizeClass = classOf(size);
+        byte[] buffer = local.get().poll(sizeClass);
+        if (buffer == null) {
+            MpmcRingBuffer<byte[]> pool = shared.get(sizeClass);
+            buffer = pool != null ? pool.poll() : null;
+        }
+        if (buffer != null) {
+            reused.increment();
+            return buffer; //old contents, producers overwrite what they use
+        }
+        allocated.increment();
+        return new byte[1 << sizeClass];
+    }
+
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length == 0 || buffer.length > MAX_POOLED_SIZE || Integer.bitCount(buffer.length) != 1) {
+            return; //not a size acquire hands out
+        }
+        int sizeClass = classOf(buffer.length);
+        if (!local.get().offer(sizeClass, buffer)) {
+            MpmcRingBuffer<byte[]> pool = shared.get(sizeClass);
+            if (pool == null) {
+                shared.compareAndSet(sizeClass, null, new MpmcRingBuffer<>(SHARED_PER_CLASS));
+                pool = shared.get(sizeClass);
+            }
+            pool.offer(buffer); //dropped for the GC if the class is full
+        }
+    }
+
+    private static int classOf(int size) { //log2 of size rounded up to a power of two
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    public long getAllocatedCount() {
+        return allocated.sum();
+    }
+
+    public long getReusedCount() {
+        return reused.sum();
+    }
+
+    private static class LocalCache { //a few buffers per thread and size class, no synchronisation
+        private final byte[][][] buffers = new byte[SIZE_CLASSES][LOCAL_PER_CLASS][];
+        private final int[] counts = new int[SIZE_CLASSES];
+
+        byte[] poll(int sizeClass) {
+            if (counts[sizeClass] == 0) {
+                return null;
+            }
+            byte[] buffer = buffers[sizeClass][--counts[sizeClass]];
+            buffers[sizeClass][counts[sizeClass]] = null;
+            return buffer;
+        }
+
+        boolean offer(int sizeClass, byte[] buffer) {
+            if (counts[sizeClass] == LOCAL_PER_CLASS) {
+                return false;
+            }
+            buffers[sizeClass][counts[sizeClass]++] = buffer;
+            return true;
+        }
+    }
+}
+
 class ReadMemoryTask extends Task{ //Concrete Command and Leaf of Composite Pattern
     private Memory memory;
     private int address;
@@ -51,12 +235,41 @@ class ReadMemoryTask extends Task{ //Concrete Command and Leaf of Composite Patt
         this.address = address;
         this.size = size;
         this.name = "ReadMemoryTask";
-        this.taskData = new TaskData(new byte[size]);
+        this.taskData = TaskData.pooled(size);
     }
 
     @Override
-    public void execute() {
-        taskData.setData(memory.getMem(address, size));
+    public void execute() { //fills the pooled buffer in place
+        read(memory, address, size, taskData);
+    }
+
+    static void read(Memory memory, int address, int size, TaskData taskData) { //the task's work, also run by ExecutionPlan
+        if(memory.getMem(address, taskData.acquire(size), 0, size) < 0){ //fails as it did before the buffer was reused, instead of keeping the last data
+            throw new IndexOutOfBoundsException("ReadMemoryTask could not read " + size + " bytes at " + address);
+        }
+    }
+
+    byte[] buffer(){ //the buffer results go to
+        return taskData.acquire(size);
+    }
+
+    Memory getMemory(){
+        return memory;
+    }
+
+    int getAddress(){
+        return address;
+    }
+
+    int getSize(){
+        return size;
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        reads.add(memory.getDevice());
+        writes.add(taskData);
+        return true;
     }
 }
 class WriteMemoryTask extends Task{ //Concrete Command and Leaf of Composite Pattern
@@ -83,7 +296,34 @@ class WriteMemoryTask extends Task{ //Concrete Command and Leaf of Composite Pat
 
     @Override
     public void execute() {
-        result = memory.setMem(taskData.getData(), address);
+        result = write(memory, taskData, address);
+    }
+
+    static int write(Memory memory, TaskData taskData, int address) { //the task's work, also run by ExecutionPlan
+        return memory.setMem(taskData.getData(), 0, taskData.getLength(), address);
+    }
+
+    void recordResult(int result){ //for a batch that wrote this task's data on its behalf
+        this.result = result;
+    }
+
+    Memory getMemory(){
+        return memory;
+    }
+
+    int getAddress(){
+        return address;
+    }
+
+    TaskData getTaskData(){
+        return taskData;
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        reads.add(taskData);
+        writes.add(memory.getDevice());
+        return true;
     }
 }
 class ReadCardTask extends Task { //Concrete Command and Leaf of Composite Pattern
@@ -99,17 +339,40 @@ class ReadCardTask extends Task { //Concrete Command and Leaf of Composite Patte
     public ReadCardTask(CommunicationCard communicationCard, int size) {
         this.communicationCard = communicationCard;
         this.size = size;
-        taskData = new TaskData(new byte[size]);
+        this.name = "Read" + communicationCard.getName() + "Task";
+        taskData = TaskData.pooled(communicationCard.getComLength(size));
     }
 
     @Override
-    public void execute() {
-        byte[] data  = communicationCard.getCom(size);
-        taskData.setData(data);
+    public void execute() { //the card fills the pooled buffer in place
+        read(communicationCard, size, taskData);
+    }
+
+    static void read(CommunicationCard communicationCard, int size, TaskData taskData) { //the task's work, also run by ExecutionPlan
+        int length = communicationCard.getComLength(size);
+        byte[] data = taskData.acquire(length);
+        if(communicationCard.getCom(data, 0, length) < 0){ //like ReadMemoryTask, the writers must not send stale bytes
+            throw new IndexOutOfBoundsException("Read" + communicationCard.getName() + "Task could not read " + length + " bytes");
+        }
+    }
+
+    CommunicationCard getCommunicationCard(){
+        return communicationCard;
+    }
+
+    int getSize(){
+        return size;
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        writes.add(communicationCard.getDevice()); //reading may move the card's read cursor
+        writes.add(taskData);
+        return true;
     }
     @Override
     public String getName() {
-        return "Read" + communicationCard.getName() + "Task";
+        return name;
     }
 }
 class WriteCardTask extends Task{ //Concrete Command and Leaf of Composite Pattern
@@ -121,76 +384,1106 @@ class WriteCardTask extends Task{ //Concrete Command and Leaf of Composite Patte
     public WriteCardTask(CommunicationCard communicationCard, TaskData taskData) {
         this.communicationCard = communicationCard;
         this.taskData = taskData;
+        this.name = "Write" + communicationCard.getName() + "Task";
     }
     public String getName() {
-        return "Write" + communicationCard.getName() + "Task";
+        return name;
     }
 
     @Override
     public void execute() {
-        result = communicationCard.setCom(taskData.getData());
+        result = write(communicationCard, taskData);
+    }
+
+    static int write(CommunicationCard communicationCard, TaskData taskData) { //the task's work, also run by ExecutionPlan
+        return communicationCard.setCom(ByteBuffer.wrap(taskData.getData(), 0, taskData.getLength()));
+    }
+
+    void recordResult(int result){ //for a plan that wrote this task's data on its behalf
+        this.result = result;
+    }
+
+    CommunicationCard getCommunicationCard(){
+        return communicationCard;
+    }
+
+    TaskData getTaskData(){
+        return taskData;
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        reads.add(taskData);
+        writes.add(communicationCard.getDevice());
+        return true;
     }
 
     public int getResult() {
         return result;
     }
 }
+class DirectCardToMemoryTask extends Task{ //Concrete Command and Leaf of Composite Pattern, DMA-style: the card writes straight into the memory
+    private final CommunicationCard communicationCard;
+    private final Memory memory;
+    private final int address;
+    private final int length;
+    private int result;
+
+    public DirectCardToMemoryTask(CommunicationCard communicationCard, Memory memory, int address, int length) {
+        this.communicationCard = communicationCard;
+        this.memory = memory;
+        this.address = address;
+        this.length = length;
+        this.name = "Direct" + communicationCard.getName() + "ToMemoryTask";
+    }
+
+    @Override
+    public void execute() {
+        ByteBuffer view = memory.viewMemWritable(address, length);
+        if(view != null){ //one copy, card to memory
+            result = communicationCard.getCom(view);
+            if(result >= 0){
+                memory.commitMem(address, length);
+            }
+            return;
+        }
+        BufferPool pool = BufferPool.getInstance(); //the memory can't be viewed, go through a pooled buffer
+        byte[] buffer = pool.acquire(length);
+        result = communicationCard.getCom(buffer, 0, length);
+        if(result >= 0){
+            result = memory.setMem(buffer, 0, length, address) < 0 ? -1 : length;
+        }
+        pool.release(buffer);
+    }
+
+    public int getResult() { //bytes transferred, -1 on failure
+        return result;
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        writes.add(communicationCard.getDevice());
+        writes.add(memory.getDevice());
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
+class DirectMemoryToCardTask extends Task{ //Concrete Command and Leaf of Composite Pattern, the card reads straight out of the memory
+    private final Memory memory;
+    private final int address;
+    private final int length;
+    private final CommunicationCard communicationCard;
+    private int result;
+
+    public DirectMemoryToCardTask(Memory memory, int address, int length, CommunicationCard communicationCard) {
+        this.memory = memory;
+        this.address = address;
+        this.length = length;
+        this.communicationCard = communicationCard;
+        this.name = "DirectMemoryTo" + communicationCard.getName() + "Task";
+    }
+
+    @Override
+    public void execute() {
+        ByteBuffer view = memory.viewMem(address, length); //read-only, a copy only if the memory can't view the range
+        result = view == null || communicationCard.setCom(view) < 0 ? -1 : length;
+    }
+
+    public int getResult() { //bytes transferred, -1 on failure
+        return result;
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        reads.add(memory.getDevice());
+        writes.add(communicationCard.getDevice());
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
+/*
+ * Moves length bytes between a card and a memory in chunks. The executing thread reads chunks and submits them
+ * to a bounded SubmissionPublisher, a subscriber on the common pool writes them out, so the next chunk is read
+ * while the previous ones are being written. submit() blocks once window chunks are in flight.
+ * The card is read and written chunk by chunk, so it has to keep its own position (RingBufferEthernet does).
+ */
+abstract class StreamTransferTask extends Task{ //Abstract Command, Template Method
+    static final int DEFAULT_CHUNK_SIZE = 4096;
+    static final int DEFAULT_WINDOW = 8;
+
+    protected final CommunicationCard communicationCard;
+    protected final Memory memory;
+    protected final int address;
+    private final int length;
+    private final int chunkSize;
+    private final int window;
+    private volatile int result;
+
+    StreamTransferTask(CommunicationCard communicationCard, Memory memory, int address, int length, int chunkSize, int window) {
+        this.communicationCard = communicationCard;
+        this.memory = memory;
+        this.address = address;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.window = window;
+    }
+
+    abstract int readChunk(byte[] chunk, int length, int position); //position is relative to the start of the transfer
+    abstract int writeChunk(byte[] chunk, int length, int position); //pooled chunks can be longer than length
+
+    @Override
+    public void execute() {
+        result = length;
+        ChunkWriter writer = new ChunkWriter();
+        try (SubmissionPublisher<Chunk> publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), window)) {
+            publisher.subscribe(writer);
+            BufferPool pool = BufferPool.getInstance();
+            for(int position = 0; position < length && result >= 0; position += chunkSize){
+                int chunkLength = Math.min(chunkSize, length - position);
+                byte[] chunk = pool.acquire(chunkLength);
+                if(readChunk(chunk, chunkLength, position) < 0){
+                    pool.release(chunk);
+                    result = -1;
+                    break;
+                }
+                publisher.submit(new Chunk(chunk, chunkLength, position));
+            }
+        }
+        writer.done.join();
+    }
+
+    public int getResult() { //bytes transferred, -1 if a chunk failed
+        return result;
+    }
+
+    private static final class Chunk{
+        private final byte[] data;
+        private final int length;
+        private final int position;
+
+        private Chunk(byte[] data, int length, int position) {
+            this.data = data;
+            this.length = length;
+            this.position = position;
+        }
+    }
+
+    private final class ChunkWriter implements Flow.Subscriber<Chunk>{
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(window);
+        }
+
+        @Override
+        public void onNext(Chunk chunk) {
+            if(result >= 0 && writeChunk(chunk.data, chunk.length, chunk.position) < 0){
+                result = -1; //the reader stops submitting, chunks already queued are only released
+            }
+            BufferPool.getInstance().release(chunk.data);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result = -1;
+            done.complete(null);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+}
+class CardToMemoryStreamTask extends StreamTransferTask{ //Concrete Command and Leaf of Composite Pattern
+    public CardToMemoryStreamTask(CommunicationCard communicationCard, Memory memory, int address, int length) {
+        this(communicationCard, memory, address, length, DEFAULT_CHUNK_SIZE, DEFAULT_WINDOW);
+    }
+    public CardToMemoryStreamTask(CommunicationCard communicationCard, Memory memory, int address, int length, int chunkSize, int window) {
+        super(communicationCard, memory, address, length, chunkSize, window);
+        this.name = "Stream" + communicationCard.getName() + "ToMemoryTask";
+    }
+
+    @Override
+    int readChunk(byte[] chunk, int length, int position) {
+        return communicationCard.getCom(chunk, 0, length);
+    }
+
+    @Override
+    int writeChunk(byte[] chunk, int length, int position) {
+        return memory.setMem(chunk, 0, length, address + position);
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        writes.add(communicationCard.getDevice());
+        writes.add(memory.getDevice());
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
+class MemoryToCardStreamTask extends StreamTransferTask{ //Concrete Command and Leaf of Composite Pattern
+    public MemoryToCardStreamTask(Memory memory, int address, int length, CommunicationCard communicationCard) {
+        this(memory, address, length, communicationCard, DEFAULT_CHUNK_SIZE, DEFAULT_WINDOW);
+    }
+    public MemoryToCardStreamTask(Memory memory, int address, int length, CommunicationCard communicationCard, int chunkSize, int window) {
+        super(communicationCard, memory, address, length, chunkSize, window);
+        this.name = "StreamMemoryTo" + communicationCard.getName() + "Task";
+    }
+
+    @Override
+    int readChunk(byte[] chunk, int length, int position) {
+        return memory.getMem(address + position, chunk, 0, length);
+    }
+
+    @Override
+    int writeChunk(byte[] chunk, int length, int position) {
+        return communicationCard.setCom(ByteBuffer.wrap(chunk, 0, length));
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        reads.add(memory.getDevice());
+        writes.add(communicationCard.getDevice());
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
+/*
+ * A TaskData that one task of the tree writes and a later one reads is an intermediate of the pipeline: once the
+ * outermost composite has run, its pooled buffer goes back to BufferPool and getData() returns null until the
+ * producer runs again. Data that tasks outside the tree still need has to be read there, not inside the tree too.
+ */
 class CompositeTask extends Task{ //Concrete Command and Composite of Composite Pattern
+    private static final AtomicLong STAMPS = new AtomicLong(); //a version is never handed out twice, so a cache can't match an old tree by accident
+
     private ArrayList<Task> tasks;
+    private ExecutionMode executionMode = ExecutionMode.SEQUENTIAL;
+    private long version = STAMPS.incrementAndGet(); //a new stamp whenever this composite or a nested one changes
+    private final ArrayList<CompositeTask> parents = new ArrayList<>(); //composites this one is a child of, they are told about changes
+    private int[][] dependencies; //PARALLEL only: for each child, the earlier children it has to wait for
+    private long dependenciesVersion;
+    private ArrayList<Task> coalesced; //COALESCED only: the children with memory task runs merged
+    private long coalescedVersion;
+    private ExecutionPlan plan; //COMPILED only
+    private long planVersion;
+    private TaskData[] intermediates; //released after every execution of an outermost composite
+    private long intermediatesVersion;
 
     public CompositeTask(ArrayList<Task>tasks) {
         this.tasks = tasks;
+        for(Task task : tasks){
+            adopt(task);
+        }
     }
     public CompositeTask(){tasks = new ArrayList<>();}
     public void addTask(Task task){
         tasks.add(task);
+        adopt(task);
+        changed();
     }
     public void removeTask(Task task){
-        tasks.remove(task);
+        if(tasks.remove(task)){
+            if(task instanceof CompositeTask){
+                ((CompositeTask) task).parents.remove(this);
+            }
+            changed();
+        }
+    }
+
+    private void adopt(Task task){
+        if(task instanceof CompositeTask){
+            ((CompositeTask) task).parents.add(this);
+        }
+    }
+
+    private void changed(){
+        changed(STAMPS.incrementAndGet());
+    }
+
+    private void changed(long stamp){ //up to the root, a composite reached twice (or through a cycle) stops there
+        if(version == stamp){
+            return;
+        }
+        version = stamp;
+        name = null; //built again on the next getName
+        for(int i = 0; i < parents.size(); i++){
+            parents.get(i).changed(stamp);
+        }
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode(ExecutionMode executionMode) {
+        if(this.executionMode != executionMode){
+            this.executionMode = executionMode;
+            changed(); //whether a parent's plan inlines this composite depends on the mode
+        }
     }
 
     @Override
     public void execute() {
+        executeTasks();
+        if(parents.isEmpty()){ //a nested composite leaves it to the root, a later task there may still read the data
+            for(TaskData taskData : getIntermediates()){
+                taskData.release();
+            }
+        }
+    }
+
+    private void executeTasks() {
+        if(executionMode == ExecutionMode.COMPILED){
+            getPlan().execute();
+            return;
+        }
+        if(executionMode == ExecutionMode.PARALLEL){
+            executeParallel();
+            return;
+        }
+        List<Task> tasks = this.tasks;
+        if(executionMode == ExecutionMode.COALESCED){
+            tasks = getCoalesced();
+        }
         for(Task task : tasks){
             task.execute();
         }
     }
 
+    private void executeParallel() { //every child starts as soon as the children it depends on are done
+        int[][] dependencies = getDependencies();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[tasks.size()];
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        for(int i = 0; i < futures.length; i++){
+            Task task = tasks.get(i);
+            int[] before = dependencies[i];
+            if(before.length == 0){
+                futures[i] = CompletableFuture.runAsync(task::execute, pool);
+            }
+            else {
+                CompletableFuture<?>[] waitFor = new CompletableFuture<?>[before.length];
+                for(int j = 0; j < before.length; j++){
+                    waitFor[j] = futures[before[j]];
+                }
+                futures[i] = CompletableFuture.allOf(waitFor).thenRunAsync(task::execute, pool);
+            }
+        }
+        try {
+            CompletableFuture.allOf(futures).join();
+        }
+        catch (CompletionException e){ //rethrow what the child threw, as the sequential mode would
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            if(e.getCause() instanceof Error){
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private int[][] getDependencies() { //the DAG is rebuilt only after the tree has changed
+        long version = structureVersion();
+        if(dependencies == null || dependenciesVersion != version){
+            dependencies = buildDependencies();
+            dependenciesVersion = version;
+        }
+        return dependencies;
+    }
+
+    ExecutionPlan getPlan() { //compiled again only after the tree has changed
+        long version = structureVersion();
+        if(plan == null || planVersion != version){
+            plan = ExecutionPlan.compile(this);
+            planVersion = version;
+        }
+        return plan;
+    }
+
+    private ArrayList<Task> getCoalesced() {
+        long version = structureVersion();
+        if(coalesced == null || coalescedVersion != version){
+            coalesced = MemoryTaskCoalescer.coalesce(tasks);
+            coalescedVersion = version;
+        }
+        return coalesced;
+    }
+
+    private TaskData[] getIntermediates() {
+        long version = structureVersion();
+        if(intermediates == null || intermediatesVersion != version){
+            intermediates = findIntermediates();
+            intermediatesVersion = version;
+        }
+        return intermediates;
+    }
+
+    private TaskData[] findIntermediates() { //none if a task doesn't declare what it accesses, it might read anything
+        List<Task> leaves = new ArrayList<>();
+        collectLeaves(this, leaves);
+        Set<Object> written = identitySet(new ArrayList<>());
+        Set<Object> found = identitySet(new ArrayList<>());
+        for(Task leaf : leaves){
+            List<Object> reads = new ArrayList<>();
+            List<Object> writes = new ArrayList<>();
+            if(!leaf.collectAccesses(reads, writes)){
+                return new TaskData[0];
+            }
+            for(Object read : reads){
+                if(read instanceof TaskData && written.contains(read)){
+                    found.add(read);
+                }
+            }
+            written.addAll(writes);
+        }
+        return found.toArray(new TaskData[0]);
+    }
+
+    private static void collectLeaves(CompositeTask compositeTask, List<Task> leaves) { //in list order, which every mode keeps for dependent tasks
+        for(Task task : compositeTask.tasks){
+            if(task instanceof CompositeTask){
+                collectLeaves((CompositeTask) task, leaves);
+            }
+            else {
+                leaves.add(task);
+            }
+        }
+    }
+
+    private long structureVersion() { //changes are pushed up by addTask/removeTask, so this is a field read
+        return version;
+    }
+
+    private int[][] buildDependencies() { //a child waits for an earlier one if either writes what the other reads or writes
+        int count = tasks.size();
+        List<Set<Object>> reads = new ArrayList<>(count);
+        List<Set<Object>> writes = new ArrayList<>(count);
+        boolean[] declared = new boolean[count];
+        for(int i = 0; i < count; i++){
+            List<Object> read = new ArrayList<>();
+            List<Object> written = new ArrayList<>();
+            declared[i] = tasks.get(i).collectAccesses(read, written);
+            reads.add(identitySet(read));
+            writes.add(identitySet(written));
+        }
+        int[][] dependencies = new int[count][];
+        for(int i = 0; i < count; i++){
+            int[] before = new int[i];
+            int found = 0;
+            for(int j = 0; j < i; j++){
+                if(!declared[i] || !declared[j]
+                        || overlaps(writes.get(j), reads.get(i)) || overlaps(writes.get(j), writes.get(i))
+                        || overlaps(reads.get(j), writes.get(i))){
+                    before[found++] = j;
+                }
+            }
+            dependencies[i] = Arrays.copyOf(before, found);
+        }
+        return dependencies;
+    }
+
+    private static Set<Object> identitySet(List<Object> objects) {
+        Set<Object> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        set.addAll(objects);
+        return set;
+    }
+
+    private static boolean overlaps(Set<Object> a, Set<Object> b) {
+        for(Object object : a){
+            if(b.contains(object)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        boolean declared = true;
+        for(Task task : tasks){
+            declared &= task.collectAccesses(reads, writes);
+        }
+        return declared;
+    }
+
     public ArrayList<Task> getTasks() {
         return tasks;
     }
 
     @Override
-    String getName() {
-        String name = "(";
-        for (Task task:tasks) {
-            name += task.getName() + " ";
+    String getName() { //built once per change of the tree, addTask/removeTask clear it here and in every parent
+        if(name == null){
+            StringBuilder builder = new StringBuilder("(");
+            for(int i = 0; i < tasks.size(); i++){
+                if(i > 0){
+                    builder.append(' ');
+                }
+                builder.append(tasks.get(i).getName());
+            }
+            name = builder.append(") CompositeTask").toString();
         }
-        name = name.substring(0, name.length() - 1);
-        name += ") CompositeTask";
         return name;
     }
 }
-class TaskQueue{
-    private Queue<Task> queue;
-    private static TaskQueue instance;
+/*
+ * A CompositeTask tree compiled into a flat list of instructions, so running it is one loop over arrays instead of a
+ * walk through nested composites and virtual execute calls. Nested composites that run SEQUENTIAL or COMPILED are
+ * inlined, other modes are kept whole. The memory and card tasks become an opcode with their Memory or
+ * CommunicationCard, address, size and TaskData resolved at compile time; the loop runs the same static method the
+ * task's execute does, so results and failures are the same as executing the tree itself. Any other task, including
+ * a subclass of one of those, keeps its own execute.
+ */
+class ExecutionPlan{
+    private static final byte EXECUTE = 0, READ_MEMORY = 1, WRITE_MEMORY = 2, READ_CARD = 3, WRITE_CARD = 4;
 
-    public static TaskQueue getInstance() {
-        if (instance == null) {
-            instance = new TaskQueue();
+    private final byte[] operations;
+    private final Task[] tasks; //the compiled task, results are recorded on it
+    private final Memory[] memories;
+    private final CommunicationCard[] cards;
+    private final int[] addresses;
+    private final int[] sizes;
+    private final TaskData[] taskData;
+
+    private ExecutionPlan(Task[] tasks) {
+        int count = tasks.length;
+        this.operations = new byte[count];
+        this.tasks = tasks;
+        this.memories = new Memory[count];
+        this.cards = new CommunicationCard[count];
+        this.addresses = new int[count];
+        this.sizes = new int[count];
+        this.taskData = new TaskData[count];
+        for(int i = 0; i < count; i++){
+            resolve(i, tasks[i]);
+        }
+    }
+
+    private void resolve(int i, Task task) { //exact classes only, a subclass may override execute
+        Class<?> type = task.getClass();
+        if(type == ReadMemoryTask.class){
+            ReadMemoryTask read = (ReadMemoryTask) task;
+            operations[i] = READ_MEMORY;
+            memories[i] = read.getMemory();
+            addresses[i] = read.getAddress();
+            sizes[i] = read.getSize();
+            taskData[i] = read.getTaskData();
+        }
+        else if(type == WriteMemoryTask.class){
+            WriteMemoryTask write = (WriteMemoryTask) task;
+            operations[i] = WRITE_MEMORY;
+            memories[i] = write.getMemory();
+            addresses[i] = write.getAddress();
+            taskData[i] = write.getTaskData();
+        }
+        else if(type == ReadCardTask.class){
+            ReadCardTask read = (ReadCardTask) task;
+            operations[i] = READ_CARD;
+            cards[i] = read.getCommunicationCard();
+            sizes[i] = read.getSize();
+            taskData[i] = read.getTaskData();
+        }
+        else if(type == WriteCardTask.class){
+            WriteCardTask write = (WriteCardTask) task;
+            operations[i] = WRITE_CARD;
+            cards[i] = write.getCommunicationCard();
+            taskData[i] = write.getTaskData();
+        }
+        else {
+            operations[i] = EXECUTE;
+        }
+    }
+
+    static ExecutionPlan compile(CompositeTask compositeTask) {
+        ArrayList<Task> leaves = new ArrayList<>();
+        flatten(compositeTask, leaves);
+        return new ExecutionPlan(leaves.toArray(new Task[0]));
+    }
+
+    private static void flatten(CompositeTask compositeTask, List<Task> leaves) {
+        for(Task task : compositeTask.getTasks()){
+            if(task instanceof CompositeTask && inlinable(((CompositeTask) task).getExecutionMode())){
+                flatten((CompositeTask) task, leaves);
+            }
+            else {
+                leaves.add(task);
+            }
+        }
+    }
+
+    private static boolean inlinable(ExecutionMode executionMode) {
+        return executionMode == ExecutionMode.SEQUENTIAL || executionMode == ExecutionMode.COMPILED;
+    }
+
+    void execute() {
+        byte[] operations = this.operations;
+        for(int i = 0; i < operations.length; i++){
+            switch(operations[i]){
+                case READ_MEMORY:
+                    ReadMemoryTask.read(memories[i], addresses[i], sizes[i], taskData[i]);
+                    break;
+                case WRITE_MEMORY:
+                    ((WriteMemoryTask) tasks[i]).recordResult(WriteMemoryTask.write(memories[i], taskData[i], addresses[i]));
+                    break;
+                case READ_CARD:
+                    ReadCardTask.read(cards[i], sizes[i], taskData[i]);
+                    break;
+                case WRITE_CARD:
+                    ((WriteCardTask) tasks[i]).recordResult(WriteCardTask.write(cards[i], taskData[i]));
+                    break;
+                default:
+                    tasks[i].execute();
+            }
+        }
+    }
+
+    int size() { //instructions in the plan
+        return operations.length;
+    }
+}
+class MemoryTaskCoalescer{ //merges runs of memory tasks into bulk operations
+    private MemoryTaskCoalescer() {
+    }
+
+    /* replaces every run of two or more consecutive reads (or writes) on the same Memory whose ranges
+       touch or overlap with a single CoalescedMemoryTask. A read never joins a run of writes or the other
+       way around, so interleaved reads and writes keep their order. */
+    static ArrayList<Task> coalesce(List<Task> tasks) {
+        ArrayList<Task> result = new ArrayList<>(tasks.size());
+        int i = 0;
+        while (i < tasks.size()) {
+            Task first = tasks.get(i);
+            Memory memory = memoryOf(first);
+            if (memory == null) {
+                result.add(first);
+                i++;
+                continue;
+            }
+            boolean write = first instanceof WriteMemoryTask;
+            int start = addressOf(first);
+            int end = start + sizeOf(first);
+            int j = i + 1;
+            for (; j < tasks.size(); j++) {
+                Task next = tasks.get(j);
+                if (memoryOf(next) != memory || (next instanceof WriteMemoryTask) != write) {
+                    break;
+                }
+                int nextStart = addressOf(next);
+                int nextEnd = nextStart + sizeOf(next);
+                if (nextStart > end || nextEnd < start) { //a gap, the run ends here
+                    break;
+                }
+                start = Math.min(start, nextStart);
+                end = Math.max(end, nextEnd);
+            }
+            if (j - i > 1) {
+                result.add(new CoalescedMemoryTask(memory, write, tasks.subList(i, j), start, end - start));
+            }
+            else {
+                result.add(first);
+            }
+            i = j;
+        }
+        return result;
+    }
+
+    private static Memory memoryOf(Task task) {
+        if (task instanceof ReadMemoryTask) {
+            return ((ReadMemoryTask) task).getMemory();
+        }
+        if (task instanceof WriteMemoryTask && ((WriteMemoryTask) task).getTaskData().getData() != null) {
+            return ((WriteMemoryTask) task).getMemory();
+        }
+        return null;
+    }
+
+    private static int addressOf(Task task) {
+        return task instanceof ReadMemoryTask ? ((ReadMemoryTask) task).getAddress() : ((WriteMemoryTask) task).getAddress();
+    }
+
+    static int sizeOf(Task task) {
+        return task instanceof ReadMemoryTask ? ((ReadMemoryTask) task).getSize() : ((WriteMemoryTask) task).getTaskData().getLength();
+    }
+}
+class CoalescedMemoryTask extends Task{ //Concrete Command, one bulk memory operation standing in for a run of ReadMemoryTask or WriteMemoryTask
+    private final Memory memory;
+    private final boolean write;
+    private final Task[] parts;
+    private final int[] lengths; //each part's length when the batch was planned
+    private final int address;
+    private final int size;
+    private final byte[] buffer; //reused by every execution
+
+    CoalescedMemoryTask(Memory memory, boolean write, List<Task> parts, int address, int size) {
+        this.memory = memory;
+        this.write = write;
+        this.parts = parts.toArray(new Task[0]);
+        this.lengths = new int[this.parts.length];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = MemoryTaskCoalescer.sizeOf(this.parts[i]);
+        }
+        this.address = address;
+        this.size = size;
+        this.buffer = new byte[size];
+        this.name = write ? "CoalescedWriteMemoryTask" : "CoalescedReadMemoryTask";
+    }
+
+    Task[] getParts() {
+        return parts;
+    }
+
+    @Override
+    void execute() {
+        if (write ? !executeWrites() : !executeReads()) { //the batch can't be done in one go, fall back to the original tasks
+            for (Task part : parts) {
+                part.execute();
+            }
+        }
+    }
+
+    private boolean executeReads() {
+        if (memory.getMem(address, buffer, 0, size) < 0) {
+            return false;
+        }
+        for (Task part : parts) { //split the bulk result back into each task's TaskData
+            ReadMemoryTask read = (ReadMemoryTask) part;
+            System.arraycopy(buffer, read.getAddress() - address, read.buffer(), 0, read.getSize());
         }
-        return instance;
+        return true;
+    }
+
+    private boolean executeWrites() {
+        for (int i = 0; i < parts.length; i++) { //the planned range only matches while every part has its planned length
+            TaskData taskData = ((WriteMemoryTask) parts[i]).getTaskData();
+            if (taskData.getData() == null || taskData.getLength() != lengths[i]) { //a shorter write would leave bytes of an earlier execution in the buffer
+                return false;
+            }
+        }
+        for (Task part : parts) { //in order, so where ranges overlap the later task wins, as it would on its own
+            WriteMemoryTask write = (WriteMemoryTask) part;
+            TaskData taskData = write.getTaskData();
+            System.arraycopy(taskData.getData(), 0, buffer, write.getAddress() - address, taskData.getLength());
+        }
+        int result = memory.setMem(buffer, 0, size, address);
+        if (result < 0) {
+            return false;
+        }
+        for (Task part : parts) {
+            ((WriteMemoryTask) part).recordResult(result);
+        }
+        return true;
+    }
+
+    @Override
+    String getName() {
+        return name;
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        for (Task part : parts) {
+            part.collectAccesses(reads, writes);
+        }
+        return true;
+    }
+}
+class TaskResult{ //what a future from TaskQueue.submit completes with, immutable
+    private final Task task;
+    private final int result;
+    private final TaskData taskData;
+
+    TaskResult(Task task){
+        this.task = task;
+        this.result = task.getResult();
+        this.taskData = task.getTaskData();
+    }
+
+    public Task getTask() {
+        return task;
+    }
+
+    public int getResult() {
+        return result;
+    }
+
+    public TaskData getTaskData() {
+        return taskData;
+    }
+
+    @Override
+    public String toString() {
+        return "TaskResult{" +
+                "task=" + task.getName() +
+                ", result=" + result +
+                '}';
+    }
+}
+class AsyncTask extends Task{ //Decorator, completes a future once the wrapped task has run on a worker
+    private final Task task;
+    private final CompletableFuture<TaskResult> future = new CompletableFuture<>();
+
+    AsyncTask(Task task){
+        this.task = task;
+    }
+
+    @Override
+    void execute() { //whatever the task throws, Errors included, fails its future instead of the worker, so no caller waits forever
+        try {
+            task.execute();
+            future.complete(new TaskResult(task));
+        }
+        catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    CompletableFuture<TaskResult> getFuture() {
+        return future;
+    }
+
+    Task getTask() {
+        return task;
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        return task.collectAccesses(reads, writes);
+    }
+
+    @Override
+    int getResult() {
+        return task.getResult();
+    }
+
+    @Override
+    TaskData getTaskData() {
+        return task.getTaskData();
+    }
+
+    @Override
+    String getName() {
+        return task.getName();
+    }
+}
+class TaskQueue{ //Singleton
+    private Queue<Task> queue; //sequential mode
+    private volatile MpmcRingBuffer<Task> concurrentQueue; //concurrent mode, null until enabled
+    private final ConcurrentLinkedQueue<Task> overflow = new ConcurrentLinkedQueue<>(); //what submit queued while the ring was full
+    private volatile TaskJournal journal; //null unless enableJournal was called
+
+    private static class Holder { //the class is initialised on the first getInstance call, which the JVM makes thread-safe
+        private static final TaskQueue INSTANCE = new TaskQueue();
+    }
+
+    public static TaskQueue getInstance() {
+        return Holder.INSTANCE;
     }
 
     private TaskQueue() {
         this.queue = new LinkedList<>();
     }
 
+    /* switches to a lock-free bounded queue that any number of producers and consumers can share,
+       call it before they start. Tasks queued so far are carried over. */
+    public synchronized void enableConcurrentMode(int capacity) {
+        if (concurrentQueue != null) {
+            return;
+        }
+        MpmcRingBuffer<Task> ringBuffer = new MpmcRingBuffer<>(Math.max(capacity, queue.size()));
+        for (Task task = queue.poll(); task != null; task = queue.poll()) {
+            ringBuffer.offer(task);
+        }
+        concurrentQueue = ringBuffer;
+    }
+
+    public boolean isConcurrent() {
+        return concurrentQueue != null;
+    }
+
+    /* journals every task queued from now on and queues the ones a previous run left unfinished first.
+       The devices those tasks use have to be registered with the journal beforehand. */
+    public synchronized void enableJournal(TaskJournal journal) throws IOException {
+        if (this.journal != null) {
+            System.out.println("Error: TaskQueue already has a journal");
+            return;
+        }
+        for (Task task : journal.open()) { //already journaled again by open()
+            addTask(task);
+        }
+        this.journal = journal;
+    }
+
     public void addTask(Task task) {
-        queue.add(task);
+        addTaskUnjournaled(journaled(task));
+    }
+
+    private Task journaled(Task task) {
+        TaskJournal journal = this.journal;
+        if (journal == null) {
+            return task;
+        }
+        long sequence = journal.append(task);
+        return sequence < 0 ? task : new JournaledTask(task, sequence, journal);
+    }
+
+    private void addTaskUnjournaled(Task task) {
+        MpmcRingBuffer<Task> ringBuffer = concurrentQueue;
+        TaskMetrics.getInstance().recordEnqueue();
+        if (ringBuffer == null) {
+            queue.add(task);
+            return;
+        }
+        for (int spins = 0; !ringBuffer.offer(task); spins++) { //full, wait for consumers to make room
+            if (spins < 100) {
+                java.lang.Thread.onSpinWait();
+            }
+            else {
+                java.lang.Thread.yield();
+            }
+        }
+    }
+
+    /* queues the task and returns a future the worker that runs it completes. Continuations run on that worker,
+       so they should submit further tasks rather than wait, e.g.
+       submit(read).thenCompose(r -> submit(new WriteMemoryTask(memory, r.getTaskData(), address)))
+       submit never waits: when the concurrent queue is full the task goes to an unbounded overflow queue, otherwise
+       a continuation on the only worker would wait for room that only it can make. */
+    public CompletableFuture<TaskResult> submit(Task task) {
+        AsyncTask asyncTask = new AsyncTask(task);
+        Task queued = journaled(asyncTask);
+        MpmcRingBuffer<Task> ringBuffer = concurrentQueue;
+        TaskMetrics.getInstance().recordEnqueue();
+        if (ringBuffer == null) {
+            queue.add(queued);
+        }
+        else if (!ringBuffer.offer(queued)) {
+            overflow.add(queued);
+        }
+        return asyncTask.getFuture();
+    }
+
+    public boolean offerTask(Task task) { //like addTask, but gives up instead of waiting when the concurrent queue is full
+        MpmcRingBuffer<Task> ringBuffer = concurrentQueue;
+        Task queued = journaled(task);
+        boolean added = ringBuffer == null ? queue.offer(queued) : ringBuffer.offer(queued);
+        if (added) {
+            TaskMetrics.getInstance().recordEnqueue();
+        }
+        else if (queued instanceof JournaledTask) { //never queued, so nothing to recover
+            journal.complete(((JournaledTask) queued).getSequence());
+        }
+        return added;
+    }
+
+    public void addTasks(List<Task> tasks) { //runs of adjacent memory tasks are merged before they are queued
+        for (Task task : MemoryTaskCoalescer.coalesce(tasks)) {
+            addTask(task);
+        }
     }
 
     public Task getNextTask() {
-        return queue.poll();
+        MpmcRingBuffer<Task> ringBuffer = concurrentQueue;
+        Task task;
+        if (ringBuffer == null) {
+            task = queue.poll();
+        }
+        else { //overflow first, it only fills while the ring is full and must not wait behind a busy ring
+            task = overflow.poll();
+            if (task == null) {
+                task = ringBuffer.poll();
+            }
+        }
+        if (task != null) {
+            TaskMetrics.getInstance().recordDequeue();
+        }
+        return task;
+    }
+
+    public int size() {
+        MpmcRingBuffer<Task> ringBuffer = concurrentQueue;
+        return ringBuffer == null ? queue.size() : ringBuffer.size() + overflow.size();
+    }
+}
+class MpmcRingBuffer<E>{ //bounded multi-producer/multi-consumer queue (Vyukov), slots are preallocated so nothing is allocated per element
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray sequences; //sequence == position: free for the producer of position, position + 1: full for its consumer
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); //next position to poll
+    private final AtomicLong tail = new AtomicLong(); //next position to offer
+
+    MpmcRingBuffer(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1; //next power of two
+        buffer = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    public boolean offer(E element) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer.lazySet(index, element);
+                    sequences.set(index, position + 1); //publishes the element
+                    return true;
+                }
+            }
+            else if (difference < 0) { //the consumer of the previous lap hasn't taken the slot yet
+                return false;
+            }
+        }
+    }
+
+    public E poll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = buffer.get(index);
+                    buffer.lazySet(index, null);
+                    sequences.set(index, position + mask + 1); //hands the slot to the producer of the next lap
+                    return element;
+                }
+            }
+            else if (difference < 0) { //nothing published at this position yet
+                return null;
+            }
+        }
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    public int capacity() {
+        return mask + 1;
     }
 }
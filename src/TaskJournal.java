@@ -0,0 +1,744 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/*
+ * Write-ahead journal for TaskQueue. Every queued task is appended as an ENQUEUE record, every finished one as a
+ * COMPLETE record; after a crash open() returns the tasks that were queued but never finished.
+ *
+ * Record: int length, then length bytes of type, long sequence and payload, then a CRC32 of those bytes.
+ * A torn or corrupt record ends the journal. Devices can't be written to a file, so tasks refer to them by the
+ * name they were registered under, and the same names have to be registered again before open().
+ *
+ * Appends only go to a buffer. A commit thread writes the buffer out and forces it to disk every commit interval
+ * (group commit), so appending costs a copy and the fsync is shared by everything appended in the meantime;
+ * sync() waits until all appended records are durable. A failed write keeps its records and is retried from the
+ * same file position on the next commit, and sync() returns -1 meanwhile. Once every queued task has finished
+ * (the completion watermark has caught up) the file is truncated.
+ *
+ * Journaled tasks: ReadMemoryTask, WriteMemoryTask, ReadCardTask, WriteCardTask, CompositeTask and
+ * CoalescedMemoryTask made of those, on registered devices. A write takes its data from a read in the same or an
+ * earlier record; if that read has already finished the data is copied into the record, and a read whose data a
+ * later record depends on writes a DATA record when it finishes, so the write can still be recovered.
+ */
+class TaskJournal implements AutoCloseable{
+    private static final byte DEVICE = 1;
+    private static final byte ENQUEUE = 2;
+    private static final byte DATA = 3;
+    private static final byte COMPLETE = 4;
+
+    private static final byte READ_MEMORY = 1;
+    private static final byte WRITE_MEMORY = 2;
+    private static final byte READ_CARD = 3;
+    private static final byte WRITE_CARD = 4;
+    private static final byte COMPOSITE = 5;
+
+    private static final byte DATA_INLINE = 0;
+    private static final byte DATA_PRODUCER = 1;
+
+    private final Path file;
+    private final long commitIntervalNanos;
+    private FileChannel channel;
+
+    private final Map<String, Object> devicesByName = new HashMap<>();
+    private final Map<Object, String> namesByDevice = new IdentityHashMap<>();
+    private final Map<Object, Integer> deviceIds = new IdentityHashMap<>(); //devices with a DEVICE record in the current file
+
+    /* reads of unfinished records, so later writes can refer to their data */
+    private final Map<TaskData, Producer> producers = new IdentityHashMap<>();
+    private final Map<Long, List<Producer>> producersBySequence = new HashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition commitRequested = lock.newCondition();
+    private final Condition durable = lock.newCondition();
+    private JournalBuffer pending = new JournalBuffer();
+    private JournalBuffer writing = new JournalBuffer();
+    private final JournalBuffer record = new JournalBuffer();
+    private final DataOutputStream out = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private long appendedBytes;
+    private long durableBytes;
+    private long failedCommits; //sync waiters give up once this moves
+    private long fileEnd; //where the next commit writes, only the commit thread moves it
+    private long nextSequence = 1;
+    private long watermark; //every sequence up to here has completed
+    private final Set<Long> completedAhead = new HashSet<>();
+    private boolean opened;
+    private boolean closing;
+    private java.lang.Thread committer;
+
+    private static final class Producer {
+        private final long sequence;
+        private final int index;
+        private final TaskData taskData;
+        private boolean referenced; //a later record needs its data
+
+        private Producer(long sequence, int index, TaskData taskData) {
+            this.sequence = sequence;
+            this.index = index;
+            this.taskData = taskData;
+        }
+    }
+
+    private static final class JournalBuffer extends ByteArrayOutputStream {
+        ByteBuffer view(int from) {
+            return ByteBuffer.wrap(buf, from, count - from);
+        }
+
+        void truncate(int size) {
+            count = size;
+        }
+
+        void append(JournalBuffer other) {
+            write(other.buf, 0, other.count);
+        }
+    }
+
+    TaskJournal(Path file, long commitInterval, TimeUnit unit) {
+        this.file = file;
+        this.commitIntervalNanos = unit.toNanos(commitInterval);
+    }
+
+    public synchronized void registerMemory(String name, Memory memory) {
+        register(name, memory);
+    }
+
+    public synchronized void registerCard(String name, CommunicationCard communicationCard) {
+        register(name, communicationCard);
+    }
+
+    private void register(String name, Object device) {
+        lock.lock();
+        try {
+            if (devicesByName.containsKey(name)) {
+                System.out.println("Error: A device is already registered as " + name);
+                return;
+            }
+            devicesByName.put(name, device);
+            namesByDevice.put(device, name);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /* recovers the tasks that were queued but never finished, in queue order, and starts the commit thread.
+       The recovered tasks are journaled again and come back wrapped, ready to be queued. */
+    public List<Task> open() throws IOException {
+        lock.lock();
+        try {
+            if (opened) {
+                System.out.println("Error: TaskJournal is already open");
+                return new ArrayList<>();
+            }
+            List<Task> recovered = Files.exists(file) ? readJournal() : new ArrayList<>();
+            Path fresh = file.resolveSibling(file.getFileName() + ".tmp"); //the old journal stays until the new one is on disk
+            channel = FileChannel.open(fresh, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            opened = true;
+            List<Task> journaled = new ArrayList<>(recovered.size());
+            for (Task task : recovered) {
+                long sequence = appendLocked(task);
+                journaled.add(sequence < 0 ? task : new JournaledTask(task, sequence, this));
+            }
+            writeFully(pending.view(0), 0);
+            pending.reset();
+            durableBytes = appendedBytes;
+            channel.force(false);
+            channel.close();
+            Files.move(fresh, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            fileEnd = channel.size();
+            committer = new java.lang.Thread(this::commitLoop, "TaskJournal committer");
+            committer.setDaemon(true);
+            committer.start();
+            return journaled;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /* returns the task's sequence, or -1 if it can't be journaled (it then runs, but isn't recovered after a crash) */
+    long append(Task task) {
+        lock.lock();
+        try {
+            if (!opened || closing) {
+                System.out.println("Error: TaskJournal is not open");
+                return -1;
+            }
+            return appendLocked(task);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private long appendLocked(Task task) {
+        long sequence = nextSequence;
+        List<Producer> produced = new ArrayList<>();
+        int mark = pending.size();
+        try {
+            if (!writeDevices(task)) {
+                System.out.println("Error: " + task.getName() + " uses a device that isn't registered, it isn't journaled");
+                return -1;
+            }
+            int recordMark = pending.size(); //DEVICE records stay, later records may use the ids
+            beginRecord(ENQUEUE, sequence);
+            if (!writeTask(task, sequence, produced)) {
+                pending.truncate(recordMark);
+                appendedBytes += recordMark - mark;
+                System.out.println("Error: " + task.getName() + " can't be journaled");
+                return -1;
+            }
+            endRecord();
+        }
+        catch (IOException e) { //writing to a byte array doesn't fail
+            throw new IllegalStateException(e);
+        }
+        nextSequence++;
+        for (Producer producer : produced) {
+            producers.put(producer.taskData, producer);
+        }
+        if (!produced.isEmpty()) {
+            producersBySequence.put(sequence, produced);
+        }
+        appendedBytes += pending.size() - mark;
+        return sequence;
+    }
+
+    /* records that the task with this sequence has finished */
+    void complete(long sequence) {
+        lock.lock();
+        try {
+            List<Producer> produced = producersBySequence.remove(sequence);
+            if (produced != null) {
+                for (Producer producer : produced) {
+                    producers.remove(producer.taskData);
+                    if (producer.referenced) { //a queued write still needs this data after a restart
+                        byte[] data = producer.taskData.getData();
+                        if (data != null) {
+                            beginRecord(DATA, sequence);
+                            out.writeInt(producer.index);
+                            out.writeInt(producer.taskData.getLength());
+                            out.write(data, 0, producer.taskData.getLength());
+                            endRecord();
+                        }
+                    }
+                }
+            }
+            beginRecord(COMPLETE, sequence);
+            endRecord();
+            if (sequence == watermark + 1) {
+                watermark++;
+                while (completedAhead.remove(watermark + 1)) {
+                    watermark++;
+                }
+            }
+            else {
+                completedAhead.add(sequence);
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /* blocks until everything appended so far is on disk, returns -1 if a commit failed first */
+    public int sync() {
+        lock.lock();
+        try {
+            long target = appendedBytes;
+            long failures = failedCommits;
+            commitRequested.signal();
+            while (durableBytes < target && committer != null && failedCommits == failures) {
+                durable.awaitUninterruptibly();
+            }
+            return durableBytes >= target ? 0 : -1;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getWatermark() {
+        lock.lock();
+        try {
+            return watermark;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDurableBytes() {
+        lock.lock();
+        try {
+            return durableBytes;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /* commits what is left and stops the commit thread */
+    @Override
+    public void close() throws IOException {
+        java.lang.Thread stopping;
+        lock.lock();
+        try {
+            closing = true;
+            commitRequested.signal();
+            stopping = committer;
+        }
+        finally {
+            lock.unlock();
+        }
+        if (stopping != null) {
+            try {
+                stopping.join();
+            }
+            catch (InterruptedException e) {
+                java.lang.Thread.currentThread().interrupt();
+            }
+        }
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            long target;
+            lock.lock();
+            try {
+                if (!closing) {
+                    commitRequested.awaitNanos(commitIntervalNanos); //records appended meanwhile share the fsync
+                }
+                if (pending.size() == 0) {
+                    if (closing) {
+                        committer = null;
+                        durable.signalAll();
+                        return;
+                    }
+                    continue;
+                }
+                JournalBuffer full = pending;
+                pending = writing;
+                writing = full;
+                target = appendedBytes;
+            }
+            catch (InterruptedException e) {
+                continue;
+            }
+            finally {
+                lock.unlock();
+            }
+            try {
+                long end = writeFully(writing.view(0), fileEnd);
+                channel.force(false);
+                fileEnd = end;
+            }
+            catch (IOException e) {
+                System.out.println("Error: TaskJournal could not write " + file + ": " + e.getMessage());
+                lock.lock();
+                try {
+                    writing.append(pending); //the failed records go first again
+                    pending.reset();
+                    JournalBuffer retry = writing;
+                    writing = pending;
+                    pending = retry;
+                    failedCommits++;
+                    durable.signalAll();
+                    if (closing) { //nobody will append or wait for a retry
+                        committer = null;
+                        return;
+                    }
+                }
+                finally {
+                    lock.unlock();
+                }
+                continue;
+            }
+            writing.reset();
+            lock.lock();
+            try {
+                durableBytes = target;
+                durable.signalAll();
+                compact();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void compact() { //every queued task has finished and nothing is waiting to be written
+        try {
+            if (watermark == nextSequence - 1 && pending.size() == 0 && fileEnd > 0) {
+                channel.truncate(0);
+                channel.force(false);
+                fileEnd = 0;
+                deviceIds.clear();
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Error: TaskJournal could not truncate " + file + ": " + e.getMessage());
+        }
+    }
+
+    private long writeFully(ByteBuffer buffer, long position) throws IOException { //returns the end of what was written
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    /* record framing, records are built in the record buffer and copied to pending once complete */
+
+    private void beginRecord(byte type, long sequence) throws IOException {
+        record.reset();
+        out.writeInt(0); //length, filled in by endRecord
+        out.writeByte(type);
+        out.writeLong(sequence);
+    }
+
+    private void endRecord() throws IOException {
+        int bodyLength = record.size() - 4;
+        crc.reset();
+        crc.update(record.view(4));
+        out.writeInt((int) crc.getValue());
+        ByteBuffer framed = record.view(0);
+        framed.putInt(0, bodyLength);
+        pending.write(framed.array(), framed.arrayOffset(), framed.remaining());
+    }
+
+    /* devices get a DEVICE record before the first record that uses them */
+    private boolean writeDevices(Task task) throws IOException {
+        List<Object> devices = new ArrayList<>();
+        if (!collectDevices(task, devices)) {
+            return true; //writeTask rejects it
+        }
+        for (Object device : devices) {
+            if (deviceIds.containsKey(device)) {
+                continue;
+            }
+            String name = namesByDevice.get(device);
+            if (name == null) {
+                return false;
+            }
+            int id = deviceIds.size();
+            deviceIds.put(device, id);
+            beginRecord(DEVICE, id);
+            out.writeUTF(name);
+            endRecord();
+        }
+        return true;
+    }
+
+    private static boolean collectDevices(Task task, List<Object> devices) {
+        task = unwrap(task);
+        if (task.getClass() == ReadMemoryTask.class) {
+            devices.add(((ReadMemoryTask) task).getMemory());
+        }
+        else if (task.getClass() == WriteMemoryTask.class) {
+            devices.add(((WriteMemoryTask) task).getMemory());
+        }
+        else if (task.getClass() == ReadCardTask.class) {
+            devices.add(((ReadCardTask) task).getCommunicationCard());
+        }
+        else if (task.getClass() == WriteCardTask.class) {
+            devices.add(((WriteCardTask) task).getCommunicationCard());
+        }
+        else if (task instanceof CompositeTask || task instanceof CoalescedMemoryTask) {
+            for (Task child : children(task)) {
+                if (!collectDevices(child, devices)) {
+                    return false;
+                }
+            }
+        }
+        else {
+            return false;
+        }
+        return true;
+    }
+
+    private static Task unwrap(Task task) {
+        return task instanceof AsyncTask ? ((AsyncTask) task).getTask() : task;
+    }
+
+    private static List<Task> children(Task task) {
+        return task instanceof CompositeTask ? ((CompositeTask) task).getTasks() : List.of(((CoalescedMemoryTask) task).getParts());
+    }
+
+    private boolean writeTask(Task task, long sequence, List<Producer> produced) throws IOException {
+        task = unwrap(task);
+        if (task.getClass() == ReadMemoryTask.class) {
+            ReadMemoryTask read = (ReadMemoryTask) task;
+            out.writeByte(READ_MEMORY);
+            out.writeInt(deviceIds.get(read.getMemory()));
+            out.writeInt(read.getAddress());
+            out.writeInt(read.getSize());
+            produced.add(new Producer(sequence, produced.size(), read.getTaskData()));
+            return true;
+        }
+        if (task.getClass() == ReadCardTask.class) {
+            ReadCardTask read = (ReadCardTask) task;
+            out.writeByte(READ_CARD);
+            out.writeInt(deviceIds.get(read.getCommunicationCard()));
+            out.writeInt(read.getSize());
+            produced.add(new Producer(sequence, produced.size(), read.getTaskData()));
+            return true;
+        }
+        if (task.getClass() == WriteMemoryTask.class) {
+            WriteMemoryTask write = (WriteMemoryTask) task;
+            out.writeByte(WRITE_MEMORY);
+            out.writeInt(deviceIds.get(write.getMemory()));
+            out.writeInt(write.getAddress());
+            return writeSource(write.getTaskData(), produced);
+        }
+        if (task.getClass() == WriteCardTask.class) {
+            WriteCardTask write = (WriteCardTask) task;
+            out.writeByte(WRITE_CARD);
+            out.writeInt(deviceIds.get(write.getCommunicationCard()));
+            return writeSource(write.getTaskData(), produced);
+        }
+        if (task instanceof CompositeTask || task instanceof CoalescedMemoryTask) {
+            List<Task> children = children(task);
+            out.writeByte(COMPOSITE);
+            out.writeByte(task instanceof CompositeTask ? ((CompositeTask) task).getExecutionMode().ordinal() : ExecutionMode.COALESCED.ordinal());
+            out.writeInt(children.size());
+            for (Task child : children) {
+                if (!writeTask(child, sequence, produced)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean writeSource(TaskData taskData, List<Producer> produced) throws IOException { //where a write's data comes from
+        for (Producer producer : produced) { //a read earlier in the same record
+            if (producer.taskData == taskData) {
+                out.writeByte(DATA_PRODUCER);
+                out.writeLong(producer.sequence);
+                out.writeInt(producer.index);
+                return true;
+            }
+        }
+        Producer producer = producers.get(taskData);
+        if (producer != null) { //a read in an earlier record that hasn't finished yet
+            producer.referenced = true; //complete() writes the data once the read has finished
+            out.writeByte(DATA_PRODUCER);
+            out.writeLong(producer.sequence);
+            out.writeInt(producer.index);
+            return true;
+        }
+        byte[] data = taskData.getData();
+        if (data == null) {
+            return false;
+        }
+        out.writeByte(DATA_INLINE);
+        out.writeInt(taskData.getLength());
+        out.write(data, 0, taskData.getLength());
+        return true;
+    }
+
+    /* recovery */
+
+    private List<Task> readJournal() throws IOException {
+        Map<Integer, String> deviceNames = new HashMap<>();
+        Map<Long, ByteBuffer> unfinished = new LinkedHashMap<>();
+        Map<String, byte[]> data = new HashMap<>();
+        try (FileChannel journal = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = journal.map(FileChannel.MapMode.READ_ONLY, 0, journal.size());
+            CRC32 check = new CRC32();
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt(buffer.position());
+                if (length < 9 || length + 8 > buffer.remaining()) {
+                    break; //torn tail
+                }
+                ByteBuffer body = buffer.slice();
+                body.position(4).limit(4 + length);
+                check.reset();
+                check.update(body.duplicate());
+                if ((int) check.getValue() != buffer.getInt(buffer.position() + 4 + length)) {
+                    break;
+                }
+                buffer.position(buffer.position() + length + 8);
+                byte type = body.get();
+                long sequence = body.getLong();
+                ByteBuffer payload = body.slice();
+                if (type == DEVICE) {
+                    deviceNames.put((int) sequence, readUTF(payload));
+                }
+                else if (type == ENQUEUE) {
+                    unfinished.put(sequence, payload);
+                }
+                else if (type == DATA) {
+                    int index = payload.getInt();
+                    byte[] bytes = new byte[payload.getInt()];
+                    payload.get(bytes);
+                    data.put(sequence + ":" + index, bytes);
+                }
+                else if (type == COMPLETE) {
+                    unfinished.remove(sequence);
+                }
+            }
+        }
+        List<Task> tasks = new ArrayList<>();
+        Map<String, TaskData> recoveredData = new HashMap<>();
+        for (Map.Entry<Long, ByteBuffer> entry : unfinished.entrySet()) {
+            try {
+                int[] produced = new int[1];
+                tasks.add(readTask(entry.getValue(), entry.getKey(), produced, deviceNames, data, recoveredData));
+            }
+            catch (IllegalStateException | BufferUnderflowException e) {
+                System.out.println("Error: Task " + entry.getKey() + " can't be recovered: " + e.getMessage());
+            }
+        }
+        return tasks;
+    }
+
+    private Task readTask(ByteBuffer payload, long sequence, int[] produced, Map<Integer, String> deviceNames,
+                          Map<String, byte[]> data, Map<String, TaskData> recoveredData) {
+        byte opcode = payload.get();
+        switch (opcode) {
+            case READ_MEMORY: {
+                ReadMemoryTask read = new ReadMemoryTask((Memory) device(payload.getInt(), deviceNames), payload.getInt(), payload.getInt());
+                recoveredData.put(sequence + ":" + produced[0]++, read.getTaskData());
+                return read;
+            }
+            case READ_CARD: {
+                ReadCardTask read = new ReadCardTask((CommunicationCard) device(payload.getInt(), deviceNames), payload.getInt());
+                recoveredData.put(sequence + ":" + produced[0]++, read.getTaskData());
+                return read;
+            }
+            case WRITE_MEMORY: {
+                Memory memory = (Memory) device(payload.getInt(), deviceNames);
+                int address = payload.getInt();
+                return new WriteMemoryTask(memory, readSource(payload, data, recoveredData), address);
+            }
+            case WRITE_CARD: {
+                CommunicationCard communicationCard = (CommunicationCard) device(payload.getInt(), deviceNames);
+                return new WriteCardTask(communicationCard, readSource(payload, data, recoveredData));
+            }
+            case COMPOSITE: {
+                CompositeTask compositeTask = new CompositeTask();
+                compositeTask.setExecutionMode(ExecutionMode.values()[payload.get()]);
+                int count = payload.getInt();
+                for (int i = 0; i < count; i++) {
+                    compositeTask.addTask(readTask(payload, sequence, produced, deviceNames, data, recoveredData));
+                }
+                return compositeTask;
+            }
+            default:
+                throw new IllegalStateException("unknown task type " + opcode);
+        }
+    }
+
+    private static TaskData readSource(ByteBuffer payload, Map<String, byte[]> data, Map<String, TaskData> recoveredData) {
+        if (payload.get() == DATA_INLINE) {
+            byte[] bytes = new byte[payload.getInt()];
+            payload.get(bytes);
+            return new TaskData(bytes);
+        }
+        String key = payload.getLong() + ":" + payload.getInt();
+        TaskData taskData = recoveredData.get(key); //the read is recovered as well and runs first
+        if (taskData != null) {
+            return taskData;
+        }
+        byte[] bytes = data.get(key); //the read finished before the crash
+        if (bytes == null) {
+            throw new IllegalStateException("the data it writes was lost");
+        }
+        return new TaskData(bytes);
+    }
+
+    private Object device(int id, Map<Integer, String> deviceNames) {
+        String name = deviceNames.get(id);
+        Object device = name == null ? null : devicesByName.get(name);
+        if (device == null) {
+            throw new IllegalStateException("device " + name + " isn't registered");
+        }
+        return device;
+    }
+
+    private static String readUTF(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8); //writeUTF's modified UTF-8 matches for ordinary names
+    }
+}
+class JournaledTask extends Task{ //Decorator, records the completion of a journaled task
+    private final Task task;
+    private final long sequence;
+    private final TaskJournal journal;
+
+    JournaledTask(Task task, long sequence, TaskJournal journal){
+        this.task = task;
+        this.sequence = sequence;
+        this.journal = journal;
+    }
+
+    @Override
+    void execute() { //a task that throws counts as complete too, otherwise the watermark would stop and the journal grow forever
+        try {
+            task.execute();
+        }
+        finally {
+            journal.complete(sequence);
+        }
+    }
+
+    Task getTask() {
+        return task;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    boolean collectAccesses(List<Object> reads, List<Object> writes) {
+        return task.collectAccesses(reads, writes);
+    }
+
+    @Override
+    int getResult() {
+        return task.getResult();
+    }
+
+    @Override
+    TaskData getTaskData() {
+        return task.getTaskData();
+    }
+
+    @Override
+    String getName() {
+        return task.getName();
+    }
+}
@@ -0,0 +1,8 @@
+public interface TaskLatencyMBean { //JMX view of one task type, designpatterns:type=TaskLatency,name=<class>
+    long getCount();
+    double getMeanNanos();
+    long getP50Nanos();
+    long getP90Nanos();
+    long getP99Nanos();
+    long getMaxNanos();
+}
@@ -0,0 +1,343 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+class TaskMetrics implements TaskMetricsMBean{ //Singleton, latency per task type, queue traffic and worker utilisation
+    private static final String DOMAIN = "designpatterns";
+
+    private volatile boolean enabled;
+    private final ClassValue<TaskLatency> latencies = new ClassValue<TaskLatency>() { //lock-free lookup on the hot path
+        @Override
+        protected TaskLatency computeValue(Class<?> type) {
+            TaskLatency latency = new TaskLatency(type.getName());
+            byType.put(type.getName(), latency);
+            register("type=TaskLatency,name=" + ObjectName.quote(type.getName()), latency);
+            return latency;
+        }
+    };
+    private final Map<String, TaskLatency> byType = new ConcurrentHashMap<>();
+    private final Map<String, WorkerMetrics> workers = new ConcurrentHashMap<>();
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder dequeued = new LongAdder();
+
+    private long lastSnapshotNanos = System.nanoTime();
+    private long lastEnqueued;
+    private long lastDequeued;
+    private volatile double enqueueRate;
+    private volatile double dequeueRate;
+    private ScheduledExecutorService snapshots;
+
+    private static class Holder {
+        private static final TaskMetrics INSTANCE = new TaskMetrics();
+    }
+
+    public static TaskMetrics getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private TaskMetrics() {
+    }
+
+    /* starts recording and registers the MBeans, workers started before this aren't tracked */
+    public synchronized void enable() {
+        if (enabled) {
+            return;
+        }
+        register("type=TaskMetrics", this);
+        lastSnapshotNanos = System.nanoTime();
+        enabled = true;
+    }
+
+    public synchronized void disable() {
+        enabled = false;
+        if (snapshots != null) {
+            snapshots.shutdown();
+            snapshots = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /* sends getSnapshot() to the observer every period, e.g. to SystemEventLog */
+    public synchronized void startSnapshots(long period, TimeUnit unit, Observer observer) {
+        if (snapshots != null) {
+            snapshots.shutdown();
+        }
+        snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            java.lang.Thread thread = new java.lang.Thread(runnable, "TaskMetrics snapshots");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshots.scheduleAtFixedRate(() -> observer.update(getSnapshot()), period, period, unit);
+    }
+
+    void recordTask(Task task, long nanos) {
+        if (task instanceof JournaledTask) { //wrapped tasks count as their own type
+            task = ((JournaledTask) task).getTask();
+        }
+        if (task instanceof AsyncTask) {
+            task = ((AsyncTask) task).getTask();
+        }
+        latencies.get(task.getClass()).histogram.record(nanos);
+    }
+
+    void recordEnqueue() {
+        if (enabled) {
+            enqueued.increment();
+        }
+    }
+
+    void recordDequeue() {
+        if (enabled) {
+            dequeued.increment();
+        }
+    }
+
+    WorkerMetrics registerWorker(String name) { //threads may share a name, each still gets its own metrics
+        WorkerMetrics worker = new WorkerMetrics();
+        String key = name;
+        for (int i = 2; workers.putIfAbsent(key, worker) != null; i++) {
+            key = name + " #" + i;
+        }
+        register("type=Worker,name=" + ObjectName.quote(key), worker);
+        return worker;
+    }
+
+    private void register(String properties, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(mbean, name);
+            }
+        }
+        catch (JMException e) {
+            System.out.println("Error: Could not register " + properties + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return TaskQueue.getInstance().size();
+    }
+
+    @Override
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    @Override
+    public long getDequeuedCount() {
+        return dequeued.sum();
+    }
+
+    @Override
+    public double getEnqueueRate() {
+        return enqueueRate;
+    }
+
+    @Override
+    public double getDequeueRate() {
+        return dequeueRate;
+    }
+
+    @Override
+    public String[] getTaskTypes() {
+        return byType.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public synchronized String getSnapshot() { //also moves the rate window forward
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastSnapshotNanos) / 1e9);
+        long enqueuedNow = enqueued.sum();
+        long dequeuedNow = dequeued.sum();
+        enqueueRate = (enqueuedNow - lastEnqueued) / seconds;
+        dequeueRate = (dequeuedNow - lastDequeued) / seconds;
+        lastSnapshotNanos = now;
+        lastEnqueued = enqueuedNow;
+        lastDequeued = dequeuedNow;
+
+        StringBuilder snapshot = new StringBuilder("TaskMetrics{queueDepth=").append(getQueueDepth())
+                .append(", enqueueRate=").append(Math.round(enqueueRate))
+                .append("/s, dequeueRate=").append(Math.round(dequeueRate)).append("/s");
+        for (Map.Entry<String, TaskLatency> entry : byType.entrySet()) {
+            snapshot.append("\n  ").append(entry.getKey()).append(' ').append(entry.getValue());
+        }
+        for (Map.Entry<String, WorkerMetrics> entry : workers.entrySet()) {
+            snapshot.append("\n  ").append(entry.getKey()).append(' ').append(entry.getValue());
+        }
+        return snapshot.append("\n}").toString();
+    }
+}
+
+class LatencyHistogram{ //HDR-style log-linear buckets, recording is a couple of atomic adds and never locks
+    private static final int SUB_BUCKET_BITS = 4; //16 buckets per power of two, about 6% resolution
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        counts.getAndIncrement(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) { //only contended while the max keeps growing
+            current = max.get();
+        }
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value); //>= SUB_BUCKET_BITS
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(int bucket) { //the largest value that lands in bucket
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    long getPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return 0;
+    }
+}
+
+class TaskLatency implements TaskLatencyMBean{
+    final LatencyHistogram histogram = new LatencyHistogram();
+    private final String type;
+
+    TaskLatency(String type) {
+        this.type = type;
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public double getMeanNanos() {
+        return histogram.getMean();
+    }
+
+    @Override
+    public long getP50Nanos() {
+        return histogram.getPercentile(50);
+    }
+
+    @Override
+    public long getP90Nanos() {
+        return histogram.getPercentile(90);
+    }
+
+    @Override
+    public long getP99Nanos() {
+        return histogram.getPercentile(99);
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return histogram.getMax();
+    }
+
+    @Override
+    public String toString() {
+        return "{count=" + getCount() +
+                ", meanNanos=" + Math.round(getMeanNanos()) +
+                ", p50=" + getP50Nanos() +
+                ", p90=" + getP90Nanos() +
+                ", p99=" + getP99Nanos() +
+                ", max=" + getMaxNanos() +
+                '}';
+    }
+}
+
+class WorkerMetrics implements WorkerMetricsMBean{ //written by its worker only, read from anywhere
+    private final long startedNanos = System.nanoTime();
+    private volatile long busyNanos;
+    private volatile long tasksExecuted;
+
+    void recordTask(long nanos) { //single writer, so a plain read-modify-write is enough
+        busyNanos += nanos;
+        tasksExecuted++;
+    }
+
+    @Override
+    public long getTasksExecuted() {
+        return tasksExecuted;
+    }
+
+    @Override
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    @Override
+    public long getIdleNanos() {
+        return Math.max(0, System.nanoTime() - startedNanos - busyNanos);
+    }
+
+    @Override
+    public double getUtilization() {
+        long busy = busyNanos;
+        return (double) busy / Math.max(1, busy + getIdleNanos());
+    }
+
+    @Override
+    public String toString() {
+        return "{tasks=" + getTasksExecuted() +
+                ", busyNanos=" + getBusyNanos() +
+                ", utilization=" + String.format("%.2f", getUtilization()) +
+                '}';
+    }
+}
@@ -0,0 +1,9 @@
+public interface TaskMetricsMBean { //JMX view of TaskMetrics, designpatterns:type=TaskMetrics
+    int getQueueDepth();
+    long getEnqueuedCount();
+    long getDequeuedCount();
+    double getEnqueueRate(); //per second, over the last snapshot interval
+    double getDequeueRate();
+    String[] getTaskTypes();
+    String getSnapshot();
+}
@@ -1,10 +1,25 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 interface SystemFactory{ //Abstract Factory
     Ethernet createEthernet();
+    Ethernet createRingBufferEthernet(int size);
     TokenRing createTokenRing();
+    CommunicationCard createLoopbackCard(int bufferSize, int batchFrames) throws IOException;
     Ram createMemory();
+    Ram createConcurrentMemory(int size);
+    Memory createBankedMemory(int banks, int bankSize, int granularity);
+    Ram createOffHeapMemory(long size);
+    Ram createMappedMemory(Path file, long size) throws IOException;
     CPU createCPU();
+    CPU createCPU(ThreadFactory threadFactory);
 
 }
 
@@ -29,16 +44,55 @@ class ConcreteSystemFactory implements SystemFactory{ //Concrete Factory and Sin
         return new ConcreteEthernet(10);
     }
 
+    @Override
+    public RingBufferEthernet createRingBufferEthernet(int size) {
+        return new RingBufferEthernet(size);
+    }
+
     @Override
     public ConcreteRam createMemory() {
         return new ConcreteRam(10);
     }
 
+    @Override
+    public ConcurrentRam createConcurrentMemory(int size) {
+        return new ConcurrentRam(size);
+    }
+
+    @Override
+    public BankedMemory createBankedMemory(int banks, int bankSize, int granularity) { //every bank is a ConcurrentRam
+        Ram[] rams = new Ram[banks];
+        for(int i = 0; i < banks; i++){
+            rams[i] = new ConcurrentRam(bankSize);
+        }
+        return new BankedMemory(rams, bankSize, granularity);
+    }
+
+    @Override
+    public OffHeapRam createOffHeapMemory(long size) {
+        return new OffHeapRam(size);
+    }
+
+    @Override
+    public OffHeapRam createMappedMemory(Path file, long size) throws IOException { //the caller decides what a failed mapping means
+        return new OffHeapRam(file, size);
+    }
+
     @Override
     public ConcreteCPU createCPU() {
         return new ConcreteCPU();
     }
 
+    @Override
+    public ConcreteCPU createCPU(ThreadFactory threadFactory) {
+        return new ConcreteCPU(threadFactory);
+    }
+
+    @Override
+    public LoopbackCard createLoopbackCard(int bufferSize, int batchFrames) throws IOException { //reads wait up to a second for their data, the caller decides what a failed connection means
+        return new LoopbackCard(bufferSize, batchFrames, 1, TimeUnit.SECONDS);
+    }
+
     @Override
     public ConcreteTokenRing createTokenRing() {
         return new ConcreteTokenRing(10);
@@ -49,27 +103,89 @@ class ConcreteSystemFactory implements SystemFactory{ //Concrete Factory and Sin
 interface CPU { //Abstract Product and Abstract Creator
     Process createProcess();
     Process createProcess(String name);
+
+    void submit(Task task); //queues the task on this CPU, idle workers of other CPUs may steal it
+
+    /* execution engine, every worker thread of every process runs on its own java.lang.Thread */
+    void start();
+    void shutdown(); //workers stop after their current task
+    void drain(); //workers stop once the queue is empty
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
 }
 class ConcreteCPU implements CPU{ //Concrete Creator and Concrete Product
-    private ConcreteProcess process;
+    private final ArrayList<ConcreteProcess> processes = new ArrayList<>();
+    private final ThreadFactory threadFactory;
+    private final ConcurrentLinkedDeque<Task> localTasks = new ConcurrentLinkedDeque<>(); //submitted at the tail, own workers take from the head, thieves from the tail
+
+    public ConcreteCPU() {
+        this(java.lang.Thread::new); //platform threads
+    }
+    public ConcreteCPU(ThreadFactory threadFactory) { //e.g. java.lang.Thread.ofVirtual().factory() on JDK 21+
+        this.threadFactory = threadFactory;
+    }
 
     public ConcreteProcess createProcess() { //Factory method
-        if (process == null){
-            process = new ConcreteProcess("Unnamed Process");
+        return createProcess("Unnamed Process");
+    }
+    public synchronized ConcreteProcess createProcess(String name) { //Factory method
+        ConcreteProcess process = new ConcreteProcess(name, threadFactory, this);
+        processes.add(process);
+        return process;
+    }
+
+    public synchronized ArrayList<ConcreteProcess> getProcesses() {
+        return new ArrayList<>(processes);
+    }
+
+    @Override
+    public void submit(Task task) {
+        localTasks.addLast(task);
+    }
+
+    Task pollLocalTask() { //oldest first, submitted tasks run in order like the shared queue
+        return localTasks.pollFirst();
+    }
+
+    Task stealTask() { //newest first, so the owner and the thief don't fight over the same end
+        return localTasks.pollLast();
+    }
+
+    public int localTaskCount() {
+        return localTasks.size();
+    }
+
+    @Override
+    public void start() { //other CPUs can steal from this one from now on
+        WorkStealingScheduler.getInstance().register(this);
+        for (ConcreteProcess process : getProcesses()) {
+            process.start();
         }
-        else {
-            System.out.println("Process already exists");
+    }
+
+    @Override
+    public void shutdown() {
+        WorkStealingScheduler.getInstance().unregister(this); //the scheduler no longer keeps the CPU and its threads alive
+        for (ConcreteProcess process : getProcesses()) {
+            process.shutdown();
         }
-        return process;
     }
-    public ConcreteProcess createProcess(String name) { //Factory method
-        if (process == null){
-            process = new ConcreteProcess(name);
+
+    @Override
+    public void drain() {
+        for (ConcreteProcess process : getProcesses()) {
+            process.drain();
         }
-        else {
-            System.out.println("Process already exists");
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ConcreteProcess process : getProcesses()) {
+            if (!process.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
         }
-        return process;
+        return true;
     }
 }
 
@@ -79,65 +195,210 @@ interface Process{ //Abstract Product and Abstract Creator
 
 }
 class ConcreteProcess implements Process { //Concrete Creator and Concrete Product
-    private ConcreteThread thread;
+    private final ArrayList<ConcreteThread> threads = new ArrayList<>();
+    private final ThreadFactory threadFactory;
+    private final ConcreteCPU cpu; //null for a process that doesn't belong to a CPU
     private String name;
 
     public ConcreteProcess(String name) {
+        this(name, java.lang.Thread::new, null);
+    }
+    public ConcreteProcess(String name, ThreadFactory threadFactory, ConcreteCPU cpu) {
         this.name = name;
+        this.threadFactory = threadFactory;
+        this.cpu = cpu;
     }
 
     @Override
     public ConcreteThread createThread() { //Factory method
-        if(thread == null){
-            thread = new ConcreteThread("Unnamed Thread");
-        }
-        else {
-            System.out.println("Thread already exists");
-        }
+        return createThread("Unnamed Thread");
+
+    }
+
+    @Override
+    public synchronized ConcreteThread createThread(String name) { //Factory method
+        ConcreteThread thread = new ConcreteThread(name, cpu);
+        threads.add(thread);
 
         return thread;
 
     }
 
-    @Override
-    public ConcreteThread createThread(String name) { //Factory method
-        if(thread == null){
-            thread = new ConcreteThread(name);
+    public synchronized ArrayList<ConcreteThread> getThreads() {
+        return new ArrayList<>(threads);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void start() {
+        for (ConcreteThread thread : getThreads()) {
+            thread.start(threadFactory);
         }
-        else {
-            System.out.println("Thread already exists");
+    }
+
+    public void shutdown() {
+        for (ConcreteThread thread : getThreads()) {
+            thread.shutdown();
         }
+    }
 
-        return thread;
+    public void drain() {
+        for (ConcreteThread thread : getThreads()) {
+            thread.drain();
+        }
+    }
 
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ConcreteThread thread : getThreads()) {
+            if (!thread.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
     }
 }
 
 abstract class Thread implements Subject{ //Abstract Product and Abstract Subject and Template Method
+    private static final int CREATED = 0, RUNNING = 1, DRAINING = 2, STOPPING = 3, TERMINATED = 4;
+    private static final int IDLE_SPINS = 100;
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     protected Task task;
-    protected ArrayList<Observer> observers;
+    protected volatile Observer[] observers; //copied on attach/detach, so they are safe while a notification is running
+    private final SystemEvent event = new SystemEvent(); //reused for every notification, observers copy what they keep
     protected String name;
 
+    private volatile int state = CREATED;
+    private volatile java.lang.Thread worker;
+    private WorkerMetrics workerMetrics; //only while TaskMetrics is enabled
+
     public abstract void executeTask();
     public abstract void fetchTask();
     public abstract void discardTask();
-    public void run(){ //Template Method
+    public boolean run(){ //Template Method, returns false if there was nothing to do
         fetchTask();
         if(task == null){
-            return;
+            return false;
+        }
+        TaskMetrics metrics = TaskMetrics.getInstance();
+        if(metrics.isEnabled()){
+            long start = System.nanoTime();
+            executeTask();
+            long elapsed = System.nanoTime() - start;
+            metrics.recordTask(task, elapsed);
+            if(workerMetrics != null){
+                workerMetrics.recordTask(elapsed);
+            }
+        }
+        else {
+            executeTask();
+        }
+        if(observers.length > 0){ //nothing is built for a thread nobody listens to
+            event.set(name, task.getName(), null, System.currentTimeMillis());
+            notifyObservers(event);
         }
-        executeTask();
-        notifyObservers(name + " has finished the task: " + task.getName());
         discardTask();
+        return true;
+    }
+
+    /* runs the template method in a loop on a worker thread until shutdown or drain */
+    public synchronized void start(ThreadFactory threadFactory){
+        if(state != CREATED){
+            System.out.println(name + " is already started");
+            return;
+        }
+        state = RUNNING;
+        if(TaskMetrics.getInstance().isEnabled()){
+            workerMetrics = TaskMetrics.getInstance().registerWorker(name);
+        }
+        worker = threadFactory.newThread(this::workLoop);
+        worker.setName(name);
+        worker.start();
+    }
+
+    public void shutdown(){
+        stop(STOPPING);
+    }
+
+    public void drain(){
+        stop(DRAINING);
+    }
+
+    private synchronized void stop(int newState){
+        if(state == RUNNING || (state == DRAINING && newState == STOPPING)){
+            state = newState;
+            LockSupport.unpark(worker);
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException{
+        java.lang.Thread current = worker;
+        if(current == null){
+            return true;
+        }
+        TimeUnit.NANOSECONDS.timedJoin(current, Math.max(1, unit.toNanos(timeout)));
+        return !current.isAlive();
+    }
+
+    public boolean isRunning(){
+        return state == RUNNING || state == DRAINING;
+    }
+
+    private void workLoop(){
+        int idle = 0;
+        try {
+            while(state == RUNNING || state == DRAINING){
+                boolean ran;
+                try {
+                    ran = run();
+                }
+                catch (RuntimeException e){ //one failing task doesn't take the worker down
+                    System.out.println("Error: " + name + " failed to run " + (task != null ? task.getName() : "a task") + ": " + e);
+                    discardTask();
+                    ran = true;
+                }
+                if(ran){
+                    idle = 0;
+                }
+                else if(state == DRAINING){
+                    break;
+                }
+                else if(idle < IDLE_SPINS){ //queue is empty, back off: spin, then park for longer and longer
+                    idle++;
+                    java.lang.Thread.onSpinWait();
+                }
+                else {
+                    idle = Math.min(idle + 1, IDLE_SPINS + 20);
+                    LockSupport.parkNanos(Math.min(MAX_IDLE_PARK_NANOS, 1000L << (idle - IDLE_SPINS)));
+                }
+            }
+        }
+        finally { //also when an Error ends the worker, so isRunning() doesn't report a dead one
+            state = TERMINATED;
+        }
     }
+
     @Override
-    public void attach(Observer observer) {
-        this.observers.add(observer);
+    public synchronized void attach(Observer observer) {
+        Observer[] attached = Arrays.copyOf(observers, observers.length + 1);
+        attached[observers.length] = observer;
+        this.observers = attached;
     }
 
     @Override
-    public void detach(Observer observer) {
-        this.observers.remove(observer);
+    public synchronized void detach(Observer observer) {
+        for(int i = 0; i < observers.length; i++){
+            if(observers[i] == observer){
+                Observer[] attached = new Observer[observers.length - 1];
+                System.arraycopy(observers, 0, attached, 0, i);
+                System.arraycopy(observers, i + 1, attached, i, attached.length - i);
+                this.observers = attached;
+                return;
+            }
+        }
     }
 
     @Override
@@ -147,8 +408,15 @@ abstract class Thread implements Subject{ //Abstract Product and Abstract Subjec
         }
     }
 
+    @Override
+    public void notifyObservers(SystemEvent event) { //push model
+        for(Observer observer : observers){
+            observer.update(event);
+        }
+    }
+
     public Thread(String name){
-        this.observers = new ArrayList<>();
+        this.observers = new Observer[0];
         this.name = name;
     }
 
@@ -157,9 +425,16 @@ abstract class Thread implements Subject{ //Abstract Product and Abstract Subjec
 class ConcreteThread extends Thread{ //Concrete Product and Concrete Subject
 
     private TaskQueue taskQueue;
+    private ConcreteCPU cpu;
 
-    public void fetchTask() {
-        task = taskQueue.getNextTask();
+    public void fetchTask() { //own CPU first, then the shared queue, then steal from the other CPUs
+        task = cpu != null ? cpu.pollLocalTask() : null;
+        if (task == null) {
+            task = taskQueue.getNextTask();
+        }
+        if (task == null && cpu != null) {
+            task = WorkStealingScheduler.getInstance().steal(cpu);
+        }
     }
     public void executeTask() {
         if (task == null) {
@@ -171,9 +446,75 @@ class ConcreteThread extends Thread{ //Concrete Product and Concrete Subject
     }
     public void discardTask() {task = null;}
 
+    @Override
+    public void start(ThreadFactory threadFactory) { //several workers share the queue from now on
+        taskQueue.enableConcurrentMode(1024);
+        super.start(threadFactory);
+    }
+
     public ConcreteThread(String name) {
+        this(name, null);
+    }
+
+    public ConcreteThread(String name, ConcreteCPU cpu) {
         super(name);
         taskQueue = TaskQueue.getInstance();
+        this.cpu = cpu;
     }
 }
 
+class WorkStealingScheduler{ //Singleton, knows every CPU so idle workers can find work on the others
+    private volatile ConcreteCPU[] cpus = new ConcreteCPU[0]; //copied on register/unregister, read without locking
+
+    private static class Holder {
+        private static final WorkStealingScheduler INSTANCE = new WorkStealingScheduler();
+    }
+
+    public static WorkStealingScheduler getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private WorkStealingScheduler() {
+    }
+
+    synchronized void register(ConcreteCPU cpu) {
+        for (ConcreteCPU registered : cpus) {
+            if (registered == cpu) {
+                return;
+            }
+        }
+        ConcreteCPU[] registered = Arrays.copyOf(cpus, cpus.length + 1);
+        registered[cpus.length] = cpu;
+        cpus = registered;
+    }
+
+    synchronized void unregister(ConcreteCPU cpu) {
+        for (int i = 0; i < cpus.length; i++) {
+            if (cpus[i] == cpu) {
+                ConcreteCPU[] registered = new ConcreteCPU[cpus.length - 1];
+                System.arraycopy(cpus, 0, registered, 0, i);
+                System.arraycopy(cpus, i + 1, registered, i, registered.length - i);
+                cpus = registered;
+                return;
+            }
+        }
+    }
+
+    Task steal(ConcreteCPU thief) { //victims are visited from a random start so thieves spread out
+        ConcreteCPU[] victims = cpus;
+        if (victims.length < 2) {
+            return null;
+        }
+        int start = ThreadLocalRandom.current().nextInt(victims.length);
+        for (int i = 0; i < victims.length; i++) {
+            ConcreteCPU victim = victims[(start + i) % victims.length];
+            if (victim != thief) {
+                Task task = victim.stealTask();
+                if (task != null) {
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+}
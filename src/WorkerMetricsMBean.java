@@ -0,0 +1,6 @@
+public interface WorkerMetricsMBean { //JMX view of one worker thread, designpatterns:type=Worker,name=<thread>
+    long getTasksExecuted();
+    long getBusyNanos();
+    long getIdleNanos();
+    double getUtilization(); //busy / (busy + idle)
+}
@@ -0,0 +1,28 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class CoalescedMemoryTaskTest {
+    @Test
+    void writeThatShrankAfterPlanningDoesNotWriteStaleBytes() {
+        ConcreteRam ram = new ConcreteRam(8);
+        Memory memory = new RamToMemAdapter(ram);
+        TaskData first = new TaskData(new byte[]{1, 1, 1, 1});
+        TaskData second = new TaskData(new byte[]{2, 2, 2, 2});
+        List<Task> tasks = new ArrayList<>();
+        tasks.add(new WriteMemoryTask(memory, first, 0));
+        tasks.add(new WriteMemoryTask(memory, second, 4));
+        ArrayList<Task> coalesced = MemoryTaskCoalescer.coalesce(tasks);
+        coalesced.get(0).execute(); //the batch buffer now holds both writes
+
+        ram.set(new byte[8], 0);
+        second.setData(new byte[]{3, 3});
+        for (Task task : coalesced) {
+            task.execute();
+        }
+
+        assertArrayEquals(new byte[]{1, 1, 1, 1, 3, 3, 0, 0}, ram.get(0, 8)); //what the two tasks write on their own
+    }
+}
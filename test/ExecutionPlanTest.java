@@ -0,0 +1,132 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ExecutionPlanTest {
+    private static final int SIZE = 64;
+
+    @Test
+    void compiledNestedCompositesMatchSequential() {
+        Machine sequential = new Machine(ExecutionMode.SEQUENTIAL);
+        Machine compiled = new Machine(ExecutionMode.COMPILED);
+        for (int run = 0; run < 3; run++) { //the plan is compiled once and reused
+            sequential.root.execute();
+            compiled.root.execute();
+            assertArrayEquals(sequential.ram.get(0, SIZE), compiled.ram.get(0, SIZE));
+            assertArrayEquals(sequential.card.getCom(SIZE), compiled.card.getCom(SIZE));
+            assertEquals(sequential.results(), compiled.results());
+        }
+        assertEquals(10, compiled.root.getPlan().size()); //the PARALLEL composite stays one instruction
+    }
+
+    @Test
+    void compiledPlanFollowsChangesToANestedComposite() {
+        Machine sequential = new Machine(ExecutionMode.SEQUENTIAL);
+        Machine compiled = new Machine(ExecutionMode.COMPILED);
+        compiled.root.execute();
+        sequential.root.execute();
+
+        sequential.addCopy(40, 50);
+        compiled.addCopy(40, 50);
+        sequential.root.execute();
+        compiled.root.execute();
+
+        assertArrayEquals(sequential.ram.get(0, SIZE), compiled.ram.get(0, SIZE));
+        assertEquals(sequential.results(), compiled.results());
+    }
+
+    @Test
+    void compiledReadOutOfRangeFailsLikeSequential() {
+        for (ExecutionMode mode : new ExecutionMode[]{ExecutionMode.SEQUENTIAL, ExecutionMode.COMPILED}) {
+            ConcreteRam ram = new ConcreteRam(SIZE);
+            Memory memory = new RamToMemAdapter(ram);
+            TaskData data = new TaskData(new byte[]{5});
+            CompositeTask root = new CompositeTask();
+            root.setExecutionMode(mode);
+            root.addTask(new WriteMemoryTask(memory, data, 0));
+            root.addTask(new ReadMemoryTask(memory, SIZE - 2, 4));
+            assertThrows(IndexOutOfBoundsException.class, root::execute);
+            assertEquals(5, ram.get(0, 1)[0]); //what ran before the failure stays written
+        }
+    }
+
+    private static final class Machine { //the same tree for each mode, on a Ram and a card of its own
+        private final ConcreteRam ram = new ConcreteRam(SIZE);
+        private final Memory memory = new RamToMemAdapter(ram);
+        private final CommunicationCard card = new EthernetToComAdapter(new RingBufferEthernet(SIZE * 4));
+        private final CompositeTask root = new CompositeTask();
+        private final CompositeTask copies = new CompositeTask();
+        private final List<WriteMemoryTask> memoryWrites = new ArrayList<>();
+        private final List<WriteCardTask> cardWrites = new ArrayList<>();
+
+        private Machine(ExecutionMode mode) {
+            for (int i = 0; i < SIZE; i++) {
+                ram.set(new byte[]{(byte) (i * 7)}, i);
+            }
+            root.setExecutionMode(mode);
+
+            addCopy(0, 16);
+            copies.setExecutionMode(ExecutionMode.COMPILED);
+            root.addTask(copies);
+
+            CompositeTask toCard = new CompositeTask(); //SEQUENTIAL, inlined
+            ReadMemoryTask read = new ReadMemoryTask(memory, 4, 6);
+            toCard.addTask(read);
+            WriteCardTask write = new WriteCardTask(card, read.getTaskData());
+            cardWrites.add(write);
+            toCard.addTask(write);
+            CompositeTask deeper = new CompositeTask();
+            ReadCardTask fromCard = new ReadCardTask(card, 3);
+            deeper.addTask(fromCard);
+            WriteMemoryTask back = new WriteMemoryTask(memory, fromCard.getTaskData(), 30);
+            memoryWrites.add(back);
+            deeper.addTask(back);
+            toCard.addTask(deeper);
+            root.addTask(toCard);
+
+            CompositeTask parallel = new CompositeTask(); //kept whole
+            parallel.setExecutionMode(ExecutionMode.PARALLEL);
+            ReadMemoryTask left = new ReadMemoryTask(memory, 20, 4);
+            parallel.addTask(left);
+            root.addTask(parallel);
+            WriteMemoryTask afterParallel = new WriteMemoryTask(memory, left.getTaskData(), 60);
+            memoryWrites.add(afterParallel);
+            root.addTask(afterParallel);
+
+            ReadMemoryTask counted = new ReadMemoryTask(memory, 0, 2) { //a subclass keeps its own execute
+                @Override
+                public void execute() {
+                    super.execute();
+                    getTaskData().getData()[0]++;
+                }
+            };
+            root.addTask(counted);
+            WriteMemoryTask countedBack = new WriteMemoryTask(memory, counted.getTaskData(), 0);
+            memoryWrites.add(countedBack);
+            root.addTask(countedBack);
+        }
+
+        private void addCopy(int from, int to) {
+            ReadMemoryTask read = new ReadMemoryTask(memory, from, 8);
+            WriteMemoryTask write = new WriteMemoryTask(memory, read.getTaskData(), to);
+            memoryWrites.add(write);
+            copies.addTask(read);
+            copies.addTask(write);
+        }
+
+        private List<Integer> results() {
+            List<Integer> results = new ArrayList<>();
+            for (WriteMemoryTask write : memoryWrites) {
+                results.add(write.getResult());
+            }
+            for (WriteCardTask write : cardWrites) {
+                results.add(write.getResult());
+            }
+            return results;
+        }
+    }
+}
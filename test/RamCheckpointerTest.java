@@ -0,0 +1,118 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RamCheckpointerTest {
+    private static final int SIZE = 1000; //the last page is short
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoreReturnsWhatTheLastCheckpointSaw() throws IOException {
+        Path file = directory.resolve("ram.ckpt");
+        ConcurrentRam ram = filledRam();
+        RamCheckpointer checkpointer = new RamCheckpointer(ram, file);
+        assertEquals(ram.pageCount(), checkpointer.checkpoint());
+
+        ram.set(new byte[]{9, 9, 9}, 10);
+        ram.set(new byte[]{7}, SIZE - 1);
+        assertEquals(2, checkpointer.checkpoint());
+        assertEquals(0, checkpointer.checkpoint());
+        checkpointer.close();
+
+        assertArrayEquals(ram.get(0, SIZE), RamCheckpointer.restore(file).get(0, SIZE));
+    }
+
+    @Test
+    void restoreReplaysACommittedJournal() throws IOException {
+        Path file = directory.resolve("ram.ckpt");
+        ConcurrentRam ram = filledRam();
+        RamCheckpointer checkpointer = new RamCheckpointer(ram, file);
+        checkpointer.checkpoint();
+        byte[] before = ram.get(0, SIZE);
+        ram.set(new byte[]{9, 9, 9}, 10);
+        checkpointer.checkpoint();
+        checkpointer.close();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) { //as if it stopped after the journal was committed
+            channel.write(ByteBuffer.wrap(before), 64); //the image still holds the old pages
+            channel.write(ByteBuffer.wrap(new byte[32]), 32); //and the header that followed the copy never made it
+        }
+
+        assertArrayEquals(ram.get(0, SIZE), RamCheckpointer.restore(file).get(0, SIZE));
+    }
+
+    @Test
+    void failedIncrementalCheckpointKeepsThePreviousOneAndLosesNoPage() throws IOException {
+        Path file = directory.resolve("ram.ckpt");
+        FailingRam ram = new FailingRam();
+        RamCheckpointer checkpointer = new RamCheckpointer(ram, file);
+        checkpointer.checkpoint();
+        byte[] before = ram.get(0, SIZE);
+
+        ram.set(new byte[]{1}, 0);
+        ram.set(new byte[]{2}, 300);
+        ram.set(new byte[]{3}, 600);
+        ram.failAfter = 1; //the first dirty page is copied and cleared, then the checkpoint dies
+        assertThrows(IllegalStateException.class, checkpointer::checkpoint);
+        assertArrayEquals(before, RamCheckpointer.restore(file).get(0, SIZE));
+
+        ram.failAfter = -1;
+        assertEquals(ram.pageCount(), checkpointer.checkpoint()); //every page again, including the one already cleared
+        checkpointer.close();
+        assertArrayEquals(ram.get(0, SIZE), RamCheckpointer.restore(file).get(0, SIZE));
+    }
+
+    @Test
+    void failedFullCheckpointLeavesTheOldFileIntact() throws IOException {
+        Path file = directory.resolve("ram.ckpt");
+        ConcurrentRam saved = filledRam();
+        RamCheckpointer first = new RamCheckpointer(saved, file);
+        first.checkpoint();
+        first.close();
+
+        FailingRam ram = new FailingRam();
+        ram.set(new byte[]{42}, 500);
+        ram.failAfter = 2;
+        RamCheckpointer second = new RamCheckpointer(ram, file); //a restart: its first checkpoint writes every page
+        assertThrows(IllegalStateException.class, second::checkpoint);
+
+        assertArrayEquals(saved.get(0, SIZE), RamCheckpointer.restore(file).get(0, SIZE));
+    }
+
+    private static ConcurrentRam filledRam() {
+        ConcurrentRam ram = new ConcurrentRam(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            ram.set(new byte[]{(byte) i}, i);
+        }
+        return ram;
+    }
+
+    private static final class FailingRam extends ConcreteRam { //copyPage fails once failAfter pages have been copied
+        private int failAfter = -1;
+
+        private FailingRam() {
+            super(SIZE);
+        }
+
+        @Override
+        void copyPage(int page, ByteBuffer dst) {
+            if (failAfter == 0) {
+                throw new IllegalStateException("copy failed");
+            }
+            if (failAfter > 0) {
+                failAfter--;
+            }
+            super.copyPage(page, dst);
+        }
+    }
+}
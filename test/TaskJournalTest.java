@@ -0,0 +1,119 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TaskJournalTest {
+    private static final int SIZE = 32;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversTheTasksAHaltLeftUnfinished() throws IOException {
+        Path file = directory.resolve("tasks.journal");
+        Memory before = new RamToMemAdapter(filledRam());
+        TaskJournal journal = journal(file, before);
+        journal.open();
+        ReadMemoryTask read = new ReadMemoryTask(before, 0, 4);
+        journal.append(read);
+        journal.append(new WriteMemoryTask(before, read.getTaskData(), 20));
+        journal.append(new WriteMemoryTask(before, new TaskData(new byte[]{9, 9}), 10));
+        assertEquals(0, journal.sync());
+        journal.close(); //as if the process stopped here: nothing was completed
+
+        ConcreteRam ram = filledRam();
+        TaskJournal restarted = journal(file, new RamToMemAdapter(ram));
+        List<Task> recovered = restarted.open();
+        assertEquals(3, recovered.size());
+        assertTrue(recovered.get(0) instanceof JournaledTask);
+        for (Task task : recovered) {
+            task.execute();
+        }
+        assertEquals(3, restarted.getWatermark());
+        restarted.close();
+
+        ConcreteRam expected = filledRam();
+        expected.set(new byte[]{0, 1, 2, 3}, 20);
+        expected.set(new byte[]{9, 9}, 10);
+        assertArrayEquals(expected.get(0, SIZE), ram.get(0, SIZE));
+    }
+
+    @Test
+    void tasksThatCompletedAreNotRecovered() throws IOException {
+        Path file = directory.resolve("tasks.journal");
+        Memory memory = new RamToMemAdapter(filledRam());
+        TaskJournal journal = journal(file, memory);
+        journal.open();
+        List<Task> journaled = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Task task = new WriteMemoryTask(memory, new TaskData(new byte[]{(byte) (100 + i)}), i);
+            journaled.add(new JournaledTask(task, journal.append(task), journal));
+        }
+        journaled.get(0).execute();
+        journaled.get(2).execute(); //ahead of the watermark
+        assertEquals(1, journal.getWatermark());
+        assertEquals(0, journal.sync());
+        journal.close();
+
+        ConcreteRam ram = filledRam();
+        TaskJournal restarted = journal(file, new RamToMemAdapter(ram));
+        List<Task> recovered = restarted.open();
+        assertEquals(2, recovered.size());
+        for (Task task : recovered) {
+            task.execute();
+        }
+        restarted.close();
+
+        ConcreteRam expected = filledRam();
+        expected.set(new byte[]{101}, 1);
+        expected.set(new byte[]{103}, 3);
+        assertArrayEquals(expected.get(0, SIZE), ram.get(0, SIZE)); //0 and 2 ran before the halt, they don't run again
+    }
+
+    @Test
+    void aWriteWhoseReadAlreadyRanGetsTheDataThatWasRead() throws IOException {
+        Path file = directory.resolve("tasks.journal");
+        ConcreteRam before = filledRam();
+        Memory memory = new RamToMemAdapter(before);
+        TaskJournal journal = journal(file, memory);
+        journal.open();
+        ReadMemoryTask read = new ReadMemoryTask(memory, 4, 3);
+        Task journaledRead = new JournaledTask(read, journal.append(read), journal);
+        journal.append(new WriteMemoryTask(memory, read.getTaskData(), 24));
+        journaledRead.execute(); //the read is past the watermark, its data goes into the journal
+        assertEquals(1, journal.getWatermark());
+        assertEquals(0, journal.sync());
+        journal.close();
+
+        ConcreteRam ram = new ConcreteRam(SIZE); //the restarted Ram no longer holds what was read
+        TaskJournal restarted = journal(file, new RamToMemAdapter(ram));
+        List<Task> recovered = restarted.open();
+        assertEquals(1, recovered.size());
+        recovered.get(0).execute();
+        restarted.close();
+
+        assertArrayEquals(new byte[]{4, 5, 6}, ram.get(24, 3));
+    }
+
+    private static TaskJournal journal(Path file, Memory memory) {
+        TaskJournal journal = new TaskJournal(file, 1, TimeUnit.MILLISECONDS);
+        journal.registerMemory("ram", memory); //the same name on every run
+        return journal;
+    }
+
+    private static ConcreteRam filledRam() {
+        ConcreteRam ram = new ConcreteRam(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            ram.set(new byte[]{(byte) i}, i);
+        }
+        return ram;
+    }
+}